@@ -0,0 +1,84 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the bucket names and object keys used by the benchmarks. Keys are generated from a fixed seed so that every
+ * run measures the same data.
+ */
+public final class BenchmarkPrefixes {
+    public static final String BUCKET_NAME = "access-grants-benchmark-bucket";
+    private static final char[] KEY_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private BenchmarkPrefixes() {
+    }
+
+    /**
+     * This method returns the directory shared by the generated objects, e.g. "seg1/seg2/seg3" for a depth of 3.
+     * @param depth number of "/" separated segments
+     * @param segmentLength number of characters per segment
+     */
+    public static String directory(int depth, int segmentLength) {
+        Random random = new Random(depth * 31L + segmentLength);
+        StringBuilder directory = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                directory.append('/');
+            }
+            appendSegment(directory, random, segmentLength);
+        }
+        return directory.toString();
+    }
+
+    /**
+     * This method returns count object keys in the given directory.
+     */
+    public static List<String> objectKeys(String directory, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add(directory + "/object-" + i + ".txt");
+        }
+        return keys;
+    }
+
+    /**
+     * This method returns count bucket names.
+     */
+    public static List<String> bucketNames(int count) {
+        List<String> bucketNames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bucketNames.add(BUCKET_NAME + "-" + i);
+        }
+        return bucketNames;
+    }
+
+    /**
+     * This method returns the S3 prefix of the object, e.g. "s3://bucket/foo/bar.txt".
+     */
+    public static String s3Prefix(String bucketName, String key) {
+        return "s3://" + bucketName + "/" + key;
+    }
+
+    private static void appendSegment(StringBuilder builder, Random random, int segmentLength) {
+        for (int i = 0; i < segmentLength; i++) {
+            builder.append(KEY_CHARACTERS[random.nextInt(KEY_CHARACTERS.length)]);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.s3accessgrants.cache.CacheKey;
+import com.amazonaws.services.s3control.model.Permission;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building, hashing and looking up {@link CacheKey}s for S3 prefixes of a given length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+    @Param({"64", "256", "1024"})
+    public int prefixLength;
+
+    private AWSCredentials credentials;
+    private String s3Prefix;
+    private CacheKey cacheKey;
+    private CacheKey equalCacheKey;
+    private Map<CacheKey, Boolean> cacheKeys;
+
+    @Setup
+    public void setup() {
+        credentials = new BasicSessionCredentials("accessKeyId", "secretAccessKey", "sessionToken");
+        String key = BenchmarkPrefixes.directory(1, prefixLength - BenchmarkPrefixes.BUCKET_NAME.length() - 6);
+        s3Prefix = BenchmarkPrefixes.s3Prefix(BenchmarkPrefixes.BUCKET_NAME, key);
+        cacheKey = newCacheKey(s3Prefix);
+        // a distinct String instance, so that equals() compares the characters
+        equalCacheKey = newCacheKey(new String(s3Prefix.toCharArray()));
+        cacheKeys = new HashMap<>();
+        cacheKeys.put(cacheKey, Boolean.TRUE);
+    }
+
+    @Benchmark
+    public CacheKey build() {
+        return newCacheKey(s3Prefix);
+    }
+
+    @Benchmark
+    public int hashCodeOfKey() {
+        return cacheKey.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsEqualKey() {
+        return cacheKey.equals(equalCacheKey);
+    }
+
+    @Benchmark
+    public Boolean buildAndLookUp() {
+        return cacheKeys.get(newCacheKey(s3Prefix));
+    }
+
+    private CacheKey newCacheKey(String s3Prefix) {
+        return CacheKey.builder()
+                .credentials(credentials)
+                .permission(Permission.READ)
+                .s3Prefix(s3Prefix).build();
+    }
+}
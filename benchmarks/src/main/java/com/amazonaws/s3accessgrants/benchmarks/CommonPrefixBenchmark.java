@@ -0,0 +1,73 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsStaticOperationDetails;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the common prefix computed for the keys of a DeleteObjects request, directly and through the S3 prefix of
+ * the request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommonPrefixBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int keyCount;
+
+    @Param({"4"})
+    public int depth;
+
+    private final S3AccessGrantsStaticOperationDetails operationDetails = new S3AccessGrantsStaticOperationDetails();
+    private List<String> keys;
+    private DeleteObjectsRequest deleteObjectsRequest;
+
+    @Setup
+    public void setup() {
+        keys = BenchmarkPrefixes.objectKeys(BenchmarkPrefixes.directory(depth, 16), keyCount);
+        deleteObjectsRequest = new DeleteObjectsRequest(BenchmarkPrefixes.BUCKET_NAME)
+                .withKeys(keys.toArray(new String[0]));
+    }
+
+    @Benchmark
+    public String commonPrefixFromMultiplePrefixes() {
+        return operationDetails.getCommonPrefixFromMultiplePrefixes(keys);
+    }
+
+    @Benchmark
+    public String deleteObjectsPath() {
+        return operationDetails.getPath(deleteObjectsRequest);
+    }
+}
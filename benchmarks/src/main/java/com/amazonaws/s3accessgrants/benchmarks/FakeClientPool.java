@@ -0,0 +1,47 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsClientPool;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3control.AWSS3Control;
+
+/**
+ * Client pool handing out the in-process clients, whatever the region and credentials.
+ */
+public class FakeClientPool extends S3AccessGrantsClientPool {
+    private final AWSS3Control s3ControlClient;
+    private final AmazonS3 s3Client;
+
+    public FakeClientPool(AWSS3Control s3ControlClient, AmazonS3 s3Client) {
+        super(new ClientConfiguration());
+        this.s3ControlClient = s3ControlClient;
+        this.s3Client = s3Client;
+    }
+
+    @Override
+    public AWSS3Control getS3ControlClient(Regions region, AWSCredentialsProvider credentialsProvider) {
+        return s3ControlClient;
+    }
+
+    @Override
+    public AmazonS3 getS3Client(Regions region, AWSCredentialsProvider credentialsProvider) {
+        return s3Client;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.HeadBucketRequest;
+import com.amazonaws.services.s3.model.HeadBucketResult;
+
+/**
+ * In-process S3 client answering headBucket() calls with the same region for every bucket.
+ */
+public class FakeS3Client extends AbstractAmazonS3 {
+    public static final Regions BUCKET_REGION = Regions.US_EAST_2;
+
+    @Override
+    public HeadBucketResult headBucket(HeadBucketRequest headBucketRequest) {
+        return new HeadBucketResult().withBucketRegion(BUCKET_REGION.getName());
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import com.amazonaws.services.s3control.AbstractAWSS3Control;
+import com.amazonaws.services.s3control.model.Credentials;
+import com.amazonaws.services.s3control.model.GetAccessGrantsInstanceForPrefixRequest;
+import com.amazonaws.services.s3control.model.GetAccessGrantsInstanceForPrefixResult;
+import com.amazonaws.services.s3control.model.GetDataAccessRequest;
+import com.amazonaws.services.s3control.model.GetDataAccessResult;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process S3 Control client answering Access Grants calls without going over the network. Every target is granted
+ * through its parent "directory", so credentials cached for one object cover every object next to it.
+ */
+public class FakeS3ControlClient extends AbstractAWSS3Control {
+    public static final String ACCOUNT_ID = "123456789012";
+    private static final String ACCESS_GRANTS_INSTANCE_ARN = "arn:aws:s3:us-east-2:" + ACCOUNT_ID + ":access-grants/default";
+    private static final long CREDENTIALS_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Override
+    public GetDataAccessResult getDataAccess(GetDataAccessRequest getDataAccessRequest) {
+        Credentials credentials = new Credentials()
+                .withAccessKeyId("ASIAACCESSGRANTS")
+                .withSecretAccessKey("accessGrantsSecretAccessKey")
+                .withSessionToken("accessGrantsSessionToken")
+                .withExpiration(new Date(System.currentTimeMillis() + CREDENTIALS_LIFETIME_MILLIS));
+        return new GetDataAccessResult()
+                .withCredentials(credentials)
+                .withMatchedGrantTarget(grantTarget(getDataAccessRequest.getTarget()));
+    }
+
+    @Override
+    public GetAccessGrantsInstanceForPrefixResult getAccessGrantsInstanceForPrefix(GetAccessGrantsInstanceForPrefixRequest request) {
+        return new GetAccessGrantsInstanceForPrefixResult()
+                .withAccessGrantsInstanceArn(ACCESS_GRANTS_INSTANCE_ARN)
+                .withAccessGrantsInstanceId("default");
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * This method returns the grant target matching the target, "s3://bucket/foo/*" for "s3://bucket/foo/bar.txt" and
+     * "s3://bucket/*" for objects at the root of the bucket.
+     */
+    private static String grantTarget(String target) {
+        int lastSlash = target.lastIndexOf('/');
+        if (lastSlash < "s3://".length()) {
+            return target + "/*";
+        }
+        return target.substring(0, lastSlash) + "/*";
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.benchmarks;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsCachedAccountIdResolver;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsCachedBucketRegionResolver;
+import com.amazonaws.services.s3.AmazonS3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measures the cached bucket account and bucket region lookups done for every request, across a given number of
+ * buckets. Every bucket is resolved once during setup, so the benchmarks measure cache hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolverBenchmark {
+
+    @Param({"1", "1000"})
+    public int bucketCount;
+
+    private final FakeS3ControlClient s3ControlClient = new FakeS3ControlClient();
+    private final FakeS3Client s3Client = new FakeS3Client();
+    private final Supplier<AmazonS3> s3ClientSupplier = () -> s3Client;
+    private S3AccessGrantsCachedAccountIdResolver accountIdResolver;
+    private S3AccessGrantsCachedBucketRegionResolver bucketRegionResolver;
+    private String[] bucketNames;
+    private String[] s3Prefixes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        accountIdResolver = S3AccessGrantsCachedAccountIdResolver.builder().build();
+        bucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder().build();
+        List<String> buckets = BenchmarkPrefixes.bucketNames(bucketCount);
+        String key = BenchmarkPrefixes.directory(3, 16) + "/object.txt";
+        bucketNames = buckets.toArray(new String[0]);
+        s3Prefixes = new String[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            s3Prefixes[i] = BenchmarkPrefixes.s3Prefix(bucketNames[i], key);
+            accountIdResolver.resolve(s3ControlClient, FakeS3ControlClient.ACCOUNT_ID, s3Prefixes[i]);
+            bucketRegionResolver.resolve(s3ClientSupplier, bucketNames[i]);
+        }
+    }
+
+    @Benchmark
+    public String resolveAccountId() {
+        return accountIdResolver.resolve(s3ControlClient, FakeS3ControlClient.ACCOUNT_ID, s3Prefixes[nextBucket()]);
+    }
+
+    @Benchmark
+    public Regions resolveBucketRegion() {
+        return bucketRegionResolver.resolve(s3ClientSupplier, bucketNames[nextBucket()]);
+    }
+
+    private int nextBucket() {
+        int bucket = next;
+        next = bucket + 1 == bucketCount ? 0 : bucket + 1;
+        return bucket;
+    }
+}
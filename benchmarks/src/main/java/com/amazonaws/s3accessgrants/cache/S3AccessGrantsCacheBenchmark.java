@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.s3accessgrants.benchmarks.BenchmarkPrefixes;
+import com.amazonaws.s3accessgrants.benchmarks.FakeS3ControlClient;
+import com.amazonaws.services.s3control.model.Permission;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.CACHE_EXPIRATION_TIME_PERCENTAGE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_DURATION;
+
+/**
+ * Measures {@link S3AccessGrantsCache#getCredentials} for objects at a given depth and segment length. Credentials are
+ * cached for the directory of the objects, so the warm benchmark looks up a covering key for every object, and the
+ * cold benchmark empties the cache before every call so that each call goes through the in-process S3 Control client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3AccessGrantsCacheBenchmark {
+    private static final int OBJECT_COUNT = 1_024;
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    @Param({"8", "64"})
+    public int segmentLength;
+
+    private S3AccessGrantsCache cache;
+    private S3AccessGrantsAccessDeniedCache accessDeniedCache;
+    private FakeS3ControlClient s3ControlClient;
+    private CacheKey[] cacheKeys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        cache = S3AccessGrantsCache.builder()
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE)
+                .cacheExpirationTimePercentage(CACHE_EXPIRATION_TIME_PERCENTAGE)
+                .duration(DEFAULT_DURATION).build();
+        accessDeniedCache = S3AccessGrantsAccessDeniedCache.builder().build();
+        s3ControlClient = new FakeS3ControlClient();
+
+        AWSCredentials credentials = new BasicAWSCredentials("accessKeyId", "secretAccessKey");
+        List<String> keys = BenchmarkPrefixes.objectKeys(BenchmarkPrefixes.directory(depth, segmentLength), OBJECT_COUNT);
+        cacheKeys = new CacheKey[OBJECT_COUNT];
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            cacheKeys[i] = CacheKey.builder()
+                    .credentials(credentials)
+                    .permission(Permission.READ)
+                    .s3Prefix(BenchmarkPrefixes.s3Prefix(BenchmarkPrefixes.BUCKET_NAME, keys.get(i))).build();
+        }
+        getCredentials(cacheKeys[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    public AWSCredentials getCredentialsWarmCache() {
+        return getCredentials(nextCacheKey());
+    }
+
+    @Benchmark
+    public AWSCredentials getCredentialsColdCache() {
+        cache.invalidateCache();
+        return getCredentials(nextCacheKey());
+    }
+
+    private AWSCredentials getCredentials(CacheKey cacheKey) {
+        return cache.getCredentials(s3ControlClient, cacheKey, FakeS3ControlClient.ACCOUNT_ID, accessDeniedCache);
+    }
+
+    private CacheKey nextCacheKey() {
+        CacheKey cacheKey = cacheKeys[next];
+        next = (next + 1) & (OBJECT_COUNT - 1);
+        return cacheKey;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.plugin;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.benchmarks.BenchmarkPrefixes;
+import com.amazonaws.s3accessgrants.benchmarks.FakeClientPool;
+import com.amazonaws.s3accessgrants.benchmarks.FakeS3Client;
+import com.amazonaws.s3accessgrants.benchmarks.FakeS3ControlClient;
+import com.amazonaws.s3accessgrants.benchmarks.FakeSecurityTokenService;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsCachedCredentialsProviderImpl;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsStaticOperationDetails;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link S3AccessGrantsRequestHandler#resolve} against in-process S3 Control, S3 and STS clients. The warm
+ * benchmark resolves objects whose credentials are cached, the cold benchmark empties the credentials cache before
+ * every call so that each call goes through Access Grants. Caller account, bucket account and bucket region stay cached
+ * in both cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3AccessGrantsRequestHandlerBenchmark {
+    private static final int OBJECT_COUNT = 1_024;
+
+    @Param({"false", "true"})
+    public boolean crossRegion;
+
+    @Param({"3"})
+    public int depth;
+
+    private S3AccessGrantsRequestHandler requestHandler;
+    private S3AccessGrantsCachedCredentialsProviderImpl cacheImpl;
+    private AmazonWebServiceRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setup() {
+        AWSCredentialsProvider credentialsProvider =
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("accessKeyId", "secretAccessKey"));
+        FakeS3ControlClient s3ControlClient = new FakeS3ControlClient();
+        cacheImpl = S3AccessGrantsCachedCredentialsProviderImpl.builder().build();
+        requestHandler = new S3AccessGrantsRequestHandler(s3ControlClient, false, crossRegion, credentialsProvider,
+                Regions.US_EAST_2, new FakeSecurityTokenService(), cacheImpl, new S3AccessGrantsStaticOperationDetails(),
+                new FakeClientPool(s3ControlClient, new FakeS3Client()));
+
+        List<String> keys = BenchmarkPrefixes.objectKeys(BenchmarkPrefixes.directory(depth, 16), OBJECT_COUNT);
+        requests = new AmazonWebServiceRequest[OBJECT_COUNT];
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            requests[i] = i % 2 == 0
+                    ? new GetObjectRequest(BenchmarkPrefixes.BUCKET_NAME, keys.get(i))
+                    : new PutObjectRequest(BenchmarkPrefixes.BUCKET_NAME, keys.get(i), new ByteArrayInputStream(new byte[0]), null);
+        }
+        for (AmazonWebServiceRequest request : requests) {
+            requestHandler.resolve(request);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestHandler.close();
+    }
+
+    @Benchmark
+    public AWSCredentialsProvider resolveWarmCache() {
+        return requestHandler.resolve(nextRequest());
+    }
+
+    @Benchmark
+    public AWSCredentialsProvider resolveColdCache() {
+        cacheImpl.invalidateCache();
+        return requestHandler.resolve(nextRequest());
+    }
+
+    private AmazonWebServiceRequest nextRequest() {
+        AmazonWebServiceRequest request = requests[next];
+        next = (next + 1) & (OBJECT_COUNT - 1);
+        return request;
+    }
+}
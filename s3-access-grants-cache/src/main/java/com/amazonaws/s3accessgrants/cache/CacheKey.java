@@ -23,14 +23,21 @@ import java.util.Objects;
 
 public class CacheKey {
     final AWSCredentials credentials;
+    final Identity identity;
     final Permission permission;
     final String s3Prefix;
+    private final int hash;
 
     private CacheKey(@NotNull AWSCredentials credentials, @NotNull Permission permission, @NotNull String s3Prefix) {
+        this(credentials, new Identity(credentials), permission, s3Prefix);
+    }
 
+    private CacheKey(AWSCredentials credentials, Identity identity, Permission permission, String s3Prefix) {
         this.credentials = credentials;
+        this.identity = identity;
         this.permission = permission;
         this.s3Prefix = s3Prefix;
+        this.hash = 31 * (31 * identity.hash + Objects.hashCode(s3Prefix)) + (permission == null ? 0 : permission.ordinal() + 1);
     }
 
     public CacheKey.Builder toBuilder() {
@@ -41,6 +48,20 @@ public class CacheKey {
         return new CacheKey.BuilderImpl();
     }
 
+    /**
+     * @return a key for the same requester and S3 prefix with the given permission, sharing this key's identity.
+     */
+    CacheKey withPermission(Permission permission) {
+        return permission == this.permission ? this : new CacheKey(credentials, identity, permission, s3Prefix);
+    }
+
+    /**
+     * @return a key for the same requester and permission with the given S3 prefix, sharing this key's identity.
+     */
+    CacheKey withS3Prefix(String s3Prefix) {
+        return s3Prefix.equals(this.s3Prefix) ? this : new CacheKey(credentials, identity, permission, s3Prefix);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -50,15 +71,50 @@ public class CacheKey {
             return false;
         }
         CacheKey cacheKey = (CacheKey) o;
-        return Objects.equals(credentials.getAWSAccessKeyId(), cacheKey.credentials.getAWSAccessKeyId()) &&
-                Objects.equals(credentials.getAWSSecretKey(), cacheKey.credentials.getAWSSecretKey()) &&
-                Objects.equals(s3Prefix, cacheKey.s3Prefix) &&
-                Objects.equals(permission, cacheKey.permission);
+        return hash == cacheKey.hash &&
+                permission == cacheKey.permission &&
+                identity.equals(cacheKey.identity) &&
+                Objects.equals(s3Prefix, cacheKey.s3Prefix);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey(), s3Prefix, permission);
+        return hash;
+    }
+
+    /**
+     * The requester a key belongs to, reduced once per key from its credentials to the access key id and secret key,
+     * with the hash precomputed. Keys derived from one another share the same identity instance.
+     */
+    static final class Identity {
+        private final String accessKeyId;
+        private final String secretKey;
+        private final int hash;
+
+        Identity(@NotNull AWSCredentials credentials) {
+            this.accessKeyId = credentials.getAWSAccessKeyId();
+            this.secretKey = credentials.getAWSSecretKey();
+            this.hash = 31 * Objects.hashCode(accessKeyId) + Objects.hashCode(secretKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Identity identity = (Identity) o;
+            return hash == identity.hash &&
+                    Objects.equals(accessKeyId, identity.accessKeyId) &&
+                    Objects.equals(secretKey, identity.secretKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 
     public interface Builder {
@@ -0,0 +1,87 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.services.s3control.model.Permission;
+
+import java.util.Objects;
+
+/**
+ * An S3 prefix together with the permission requested on it, e.g. to pre-warm the cache with the credentials a job is
+ * going to need.
+ */
+public final class PrefixPermission implements Comparable<PrefixPermission> {
+    private final String s3Prefix;
+    private final Permission permission;
+
+    private PrefixPermission(String s3Prefix, Permission permission) {
+        this.s3Prefix = s3Prefix;
+        this.permission = permission;
+    }
+
+    /**
+     * @param s3Prefix S3 prefix, e.g., s3://bucket-name/path/to/
+     * @param permission Permission requested on the prefix. Can be Read, Write, or ReadWrite.
+     * @return the prefix and permission.
+     */
+    public static PrefixPermission of(String s3Prefix, Permission permission) {
+        if (s3Prefix == null || !s3Prefix.startsWith("s3://")) {
+            throw new IllegalArgumentException("s3Prefix needs to start with s3://");
+        }
+        if (permission == null) {
+            throw new IllegalArgumentException("permission is required");
+        }
+        return new PrefixPermission(s3Prefix, permission);
+    }
+
+    public String getS3Prefix() {
+        return s3Prefix;
+    }
+
+    public Permission getPermission() {
+        return permission;
+    }
+
+    /**
+     * Orders by S3 prefix, so that a prefix sorts before the prefixes under it, and then by permission.
+     */
+    @Override
+    public int compareTo(PrefixPermission other) {
+        int order = s3Prefix.compareTo(other.s3Prefix);
+        return order != 0 ? order : permission.compareTo(other.permission);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PrefixPermission that = (PrefixPermission) o;
+        return permission == that.permission && s3Prefix.equals(that.s3Prefix);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(s3Prefix, permission);
+    }
+
+    @Override
+    public String toString() {
+        return permission + " " + s3Prefix;
+    }
+}
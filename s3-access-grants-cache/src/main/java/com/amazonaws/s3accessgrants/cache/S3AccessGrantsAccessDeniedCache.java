@@ -15,12 +15,16 @@
 
 package com.amazonaws.s3accessgrants.cache;
 
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.CacheName;
 import com.amazonaws.services.s3control.model.AWSS3ControlException;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.ACCESS_DENIED_CACHE_SIZE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_ACCESS_GRANTS_MAX_CACHE_SIZE;
 
 import java.util.concurrent.TimeUnit;
@@ -28,9 +32,12 @@ import java.util.concurrent.TimeUnit;
 public class S3AccessGrantsAccessDeniedCache {
     private Cache<CacheKey, AWSS3ControlException> cache;
     private int maxCacheSize;
+    private int expireCacheAfterWriteSeconds;
+    private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
 
     private S3AccessGrantsAccessDeniedCache () {
         this.maxCacheSize = ACCESS_DENIED_CACHE_SIZE;
+        this.expireCacheAfterWriteSeconds = ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
     }
 
     public static S3AccessGrantsAccessDeniedCache.Builder builder() {
@@ -40,21 +47,33 @@ public class S3AccessGrantsAccessDeniedCache {
     public interface Builder {
         S3AccessGrantsAccessDeniedCache build();
         S3AccessGrantsAccessDeniedCache.Builder maxCacheSize(int maxCacheSize);
+        S3AccessGrantsAccessDeniedCache.Builder expireCacheAfterWriteSeconds(int expireCacheAfterWriteSeconds);
+        S3AccessGrantsAccessDeniedCache.Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher);
     }
 
     static final class BuilderImpl implements S3AccessGrantsAccessDeniedCache.Builder {
 
         private int maxCacheSize = ACCESS_DENIED_CACHE_SIZE;
+        private int expireCacheAfterWriteSeconds = ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+        private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
         private BuilderImpl() {
         }
 
         @Override
         public S3AccessGrantsAccessDeniedCache build() {
             S3AccessGrantsAccessDeniedCache s3AccessGrantsAccessDeniedCache = new S3AccessGrantsAccessDeniedCache();
+            S3AccessGrantsMetricsPublisher metricsPublisher = this.metricsPublisher;
             s3AccessGrantsAccessDeniedCache.maxCacheSize = maxCacheSize();
+            s3AccessGrantsAccessDeniedCache.expireCacheAfterWriteSeconds = expireCacheAfterWriteSeconds;
+            s3AccessGrantsAccessDeniedCache.metricsPublisher = metricsPublisher;
             s3AccessGrantsAccessDeniedCache.cache = Caffeine.newBuilder()
                     .maximumSize(maxCacheSize)
-                    .expireAfterWrite(5, TimeUnit.MINUTES)
+                    .expireAfterWrite(expireCacheAfterWriteSeconds, TimeUnit.SECONDS)
+                    .removalListener((CacheKey key, AWSS3ControlException value, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            metricsPublisher.cacheEviction(CacheName.ACCESS_DENIED);
+                        }
+                    })
                     .recordStats()
                     .build();
 
@@ -71,6 +90,25 @@ public class S3AccessGrantsAccessDeniedCache {
             return this;
         }
 
+        @Override
+        public Builder expireCacheAfterWriteSeconds(int expireCacheAfterWriteSeconds) {
+            if (expireCacheAfterWriteSeconds <= 0 || expireCacheAfterWriteSeconds > MAX_LIMIT_ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS) {
+                throw new IllegalArgumentException(String.format("expireCacheAfterWriteSeconds needs to be in range (0, %d]",
+                        MAX_LIMIT_ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS));
+            }
+            this.expireCacheAfterWriteSeconds = expireCacheAfterWriteSeconds;
+            return this;
+        }
+
+        @Override
+        public Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher) {
+            if (metricsPublisher == null) {
+                throw new IllegalArgumentException("metricsPublisher is required");
+            }
+            this.metricsPublisher = metricsPublisher;
+            return this;
+        }
+
         public int maxCacheSize() {
             return maxCacheSize;
         }
@@ -83,7 +121,13 @@ public class S3AccessGrantsAccessDeniedCache {
      * @throws AWSS3ControlException when it's a cache hit.
      */
     protected AWSS3ControlException getValueFromCache (CacheKey cacheKey) {
-        return cache.getIfPresent(cacheKey);
+        AWSS3ControlException exception = cache.getIfPresent(cacheKey);
+        if (exception != null) {
+            metricsPublisher.cacheHit(CacheName.ACCESS_DENIED);
+        } else {
+            metricsPublisher.cacheMiss(CacheName.ACCESS_DENIED);
+        }
+        return exception;
     }
 
     /**
@@ -17,6 +17,14 @@ package com.amazonaws.s3accessgrants.cache;
 
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.CacheName;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.RemoteCall;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings.Stage;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheUtils;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsMetrics;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsRateGovernor;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsSingleFlight;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.AWSS3ControlException;
 import com.amazonaws.services.s3control.model.Credentials;
@@ -29,31 +37,86 @@ import org.apache.commons.logging.LogFactory;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 
 import javax.validation.constraints.NotNull;
 
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_STALE_SAFETY_MARGIN_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.REFRESH_AHEAD_THREAD_POOL_SIZE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.REFRESH_AHEAD_TIME_PERCENTAGE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.S3_PREFIX_SCHEME_LENGTH;
 
 import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class S3AccessGrantsCache {
-    private Cache<CacheKey, AWSCredentials> cache;
+    private Cache<CacheKey, CacheValue> cache;
     private int maxCacheSize;
     private final S3AccessGrantsCachedAccountIdResolver s3AccessGrantsCachedAccountIdResolver;
     private final int cacheExpirationTimePercentage;
     private static final Log logger = LogFactory.getLog(S3AccessGrantsCache.class);
     private int duration;
-
-    private S3AccessGrantsCache (S3AccessGrantsCachedAccountIdResolver resolver, int maxCacheSize, int cacheExpirationTimePercentage, int duration) {
+    private final S3AccessGrantsSingleFlight<CacheKey, AWSCredentials> inFlightRequests =
+            new S3AccessGrantsSingleFlight<>(S3AccessGrantsCache::requesterAndBucket);
+    private final ScheduledThreadPoolExecutor refreshAheadExecutor;
+    private final S3AccessGrantsPrefixTrie cachedKeysIndex = new S3AccessGrantsPrefixTrie();
+    private final S3AccessGrantsMetricsPublisher metricsPublisher;
+    private final S3AccessGrantsStageTimings stageTimings;
+    private final S3AccessGrantsRateGovernor rateGovernor;
+    private final boolean enableStaleWhileRevalidate;
+    private final int staleSafetyMarginSeconds;
+    private final Executor refreshExecutor;
+
+    private S3AccessGrantsCache (S3AccessGrantsCachedAccountIdResolver resolver, int maxCacheSize, int cacheExpirationTimePercentage, int duration,
+                                 boolean enableRefreshAhead, S3AccessGrantsMetricsPublisher metricsPublisher,
+                                 S3AccessGrantsStageTimings stageTimings, S3AccessGrantsRateGovernor rateGovernor,
+                                 boolean enableStaleWhileRevalidate, int staleSafetyMarginSeconds, Executor executor) {
         this.s3AccessGrantsCachedAccountIdResolver = resolver;
+        this.refreshExecutor = executor;
+        this.metricsPublisher = metricsPublisher;
+        this.stageTimings = stageTimings;
+        this.rateGovernor = rateGovernor;
+        this.enableStaleWhileRevalidate = enableStaleWhileRevalidate;
+        this.staleSafetyMarginSeconds = staleSafetyMarginSeconds;
         this.cacheExpirationTimePercentage = cacheExpirationTimePercentage;
         this.maxCacheSize = maxCacheSize;
         this.duration = duration;
         this.cache = Caffeine.newBuilder().maximumSize(maxCacheSize)
                 .expireAfter(new CustomCacheExpiry<>())
+                .evictionListener((CacheKey key, CacheValue value, RemovalCause cause) -> {
+                    cachedKeysIndex.remove(key);
+                    metricsPublisher.cacheEviction(CacheName.ACCESS_GRANTS);
+                })
+                .removalListener((CacheKey key, CacheValue value, RemovalCause cause) -> {
+                    if (value != null) {
+                        value.cancelRefresh();
+                    }
+                })
                 .recordStats()
                 .build();
+        this.refreshAheadExecutor = enableRefreshAhead ? createRefreshAheadExecutor() : null;
+    }
+
+    private static ScheduledThreadPoolExecutor createRefreshAheadExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(REFRESH_AHEAD_THREAD_POOL_SIZE,
+                S3AccessGrantsExecutors.threadFactory("s3-access-grants-refresh-ahead"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
     }
 
     protected static S3AccessGrantsCache.Builder builder() {
@@ -68,6 +131,15 @@ public class S3AccessGrantsCache {
         S3AccessGrantsCache.Builder cacheExpirationTimePercentage(int cacheExpirationTimePercentage);
         S3AccessGrantsCache.Builder s3AccessGrantsCachedAccountIdResolver(S3AccessGrantsCachedAccountIdResolver s3AccessGrantsCachedAccountIdResolver);
         S3AccessGrantsCache.Builder duration(int duration);
+        S3AccessGrantsCache.Builder enableRefreshAhead(boolean enableRefreshAhead);
+        S3AccessGrantsCache.Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher);
+        S3AccessGrantsCache.Builder stageTimings(S3AccessGrantsStageTimings stageTimings);
+        S3AccessGrantsCache.Builder rateGovernor(S3AccessGrantsRateGovernor rateGovernor);
+        S3AccessGrantsCache.Builder enableStaleWhileRevalidate(boolean enableStaleWhileRevalidate);
+        S3AccessGrantsCache.Builder staleSafetyMarginSeconds(int staleSafetyMarginSeconds);
+        S3AccessGrantsCache.Builder negativeCacheExpireAfterWriteSeconds(int negativeCacheExpireAfterWriteSeconds);
+        S3AccessGrantsCache.Builder pinnedAccountIds(Map<String, String> pinnedAccountIds);
+        S3AccessGrantsCache.Builder executor(Executor executor);
     }
 
     static final class BuilderImpl implements S3AccessGrantsCache.Builder {
@@ -76,6 +148,15 @@ public class S3AccessGrantsCache {
         private S3AccessGrantsCachedAccountIdResolver s3AccessGrantsCachedAccountIdResolver;
         private int cacheExpirationTimePercentage;
         private int duration;
+        private boolean enableRefreshAhead;
+        private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+        private S3AccessGrantsStageTimings stageTimings = S3AccessGrantsStageTimings.DISABLED;
+        private S3AccessGrantsRateGovernor rateGovernor = S3AccessGrantsRateGovernor.disabled();
+        private boolean enableStaleWhileRevalidate;
+        private int staleSafetyMarginSeconds = DEFAULT_STALE_SAFETY_MARGIN_SECONDS;
+        private int negativeCacheExpireAfterWriteSeconds = DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+        private Map<String, String> pinnedAccountIds = Collections.emptyMap();
+        private Executor executor = S3AccessGrantsExecutors.defaultExecutor();
 
         private BuilderImpl() {
         }
@@ -83,14 +164,19 @@ public class S3AccessGrantsCache {
         @Override
         public S3AccessGrantsCache build() {
             S3AccessGrantsCachedAccountIdResolver s3AccessGrantsCachedAccountIdResolver =
-                    S3AccessGrantsCachedAccountIdResolver.builder().build();
-            return new S3AccessGrantsCache(s3AccessGrantsCachedAccountIdResolver, maxCacheSize, cacheExpirationTimePercentage, duration);
+                    S3AccessGrantsCachedAccountIdResolver.builder().metricsPublisher(metricsPublisher).rateGovernor(rateGovernor)
+                            .expireFailureCacheAfterWriteSeconds(negativeCacheExpireAfterWriteSeconds)
+                            .pinnedAccountIds(pinnedAccountIds).executor(executor).build();
+            return new S3AccessGrantsCache(s3AccessGrantsCachedAccountIdResolver, maxCacheSize, cacheExpirationTimePercentage, duration,
+                    enableRefreshAhead, metricsPublisher, stageTimings, rateGovernor,
+                    enableStaleWhileRevalidate, staleSafetyMarginSeconds, executor);
         }
 
         @Override
         public S3AccessGrantsCache buildWithAccountIdResolver() {
             return new S3AccessGrantsCache(s3AccessGrantsCachedAccountIdResolver, maxCacheSize,
-                    cacheExpirationTimePercentage, duration);
+                    cacheExpirationTimePercentage, duration, enableRefreshAhead, metricsPublisher, stageTimings, rateGovernor,
+                    enableStaleWhileRevalidate, staleSafetyMarginSeconds, executor);
         }
 
         @Override
@@ -122,11 +208,85 @@ public class S3AccessGrantsCache {
             this.duration = duration;
             return this;
         }
+
+        @Override
+        public Builder enableRefreshAhead(boolean enableRefreshAhead) {
+            this.enableRefreshAhead = enableRefreshAhead;
+            return this;
+        }
+
+        @Override
+        public Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher) {
+            this.metricsPublisher = metricsPublisher;
+            return this;
+        }
+
+        @Override
+        public Builder stageTimings(S3AccessGrantsStageTimings stageTimings) {
+            this.stageTimings = stageTimings;
+            return this;
+        }
+
+        /**
+         * Governor limiting the rate of GetDataAccess calls. build() shares it with the account id resolver it creates.
+         */
+        @Override
+        public Builder rateGovernor(S3AccessGrantsRateGovernor rateGovernor) {
+            this.rateGovernor = rateGovernor;
+            return this;
+        }
+
+        /**
+         * When enabled, credentials are kept in the cache until staleSafetyMarginSeconds before they expire instead of
+         * being evicted at cacheExpirationTimePercentage of their lifetime. Past that point they are still served, while
+         * they are re-fetched in the background.
+         */
+        @Override
+        public Builder enableStaleWhileRevalidate(boolean enableStaleWhileRevalidate) {
+            this.enableStaleWhileRevalidate = enableStaleWhileRevalidate;
+            return this;
+        }
+
+        @Override
+        public Builder staleSafetyMarginSeconds(int staleSafetyMarginSeconds) {
+            this.staleSafetyMarginSeconds = staleSafetyMarginSeconds;
+            return this;
+        }
+
+        /**
+         * Time for which build() has the account id resolver it creates remember a failure to resolve the account id of a
+         * bucket.
+         */
+        @Override
+        public Builder negativeCacheExpireAfterWriteSeconds(int negativeCacheExpireAfterWriteSeconds) {
+            this.negativeCacheExpireAfterWriteSeconds = negativeCacheExpireAfterWriteSeconds;
+            return this;
+        }
+
+        /**
+         * Account ids of buckets known ahead of time, which build() pins in the account id resolver it creates.
+         */
+        @Override
+        public Builder pinnedAccountIds(Map<String, String> pinnedAccountIds) {
+            this.pinnedAccountIds = pinnedAccountIds;
+            return this;
+        }
+
+        /**
+         * Executor on which stale credentials are re-fetched in the background. build() shares it with the account id
+         * resolver it creates. The cache does not shut it down.
+         */
+        @Override
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
     }
 
     /**
      * This method searches for the cacheKey in the cache. It will also search for a cache key with broader permission than
-     * requested.
+     * requested. Concurrent misses for the same cacheKey share a single call to Access Grants, and a miss that may be
+     * covered by an in-flight call for a parent prefix waits for that call before calling the service.
      * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
      * @param accountId Account Id of the requester
      * @param s3AccessGrantsAccessDeniedCache instance of S3AccessGrantsAccessDeniedCache
@@ -137,44 +297,258 @@ public class S3AccessGrantsCache {
 
         logger.debug("Fetching credentials from Access Grants for s3Prefix: " + cacheKey.s3Prefix);
 
-        AWSCredentials credentials = searchKeyInCacheAtPrefixLevel(cacheKey);
-        if (credentials == null &&
-                (cacheKey.permission == Permission.READ ||
-                        cacheKey.permission == Permission.WRITE)) {
-            credentials = searchKeyInCacheAtPrefixLevel(cacheKey.toBuilder().permission(Permission.READWRITE).build());
+        long probeStart = stageTimings.start();
+        AWSCredentials credentials = searchKeyInCache(cacheKey);
+        stageTimings.record(Stage.CACHE_PROBE, probeStart);
+        recordLookup(credentials);
+        if (credentials == null && !inFlightRequests.isInFlight(cacheKey)) {
+            credentials = waitForCoveringRequest(cacheKey);
         }
         if (credentials == null) {
-            credentials = searchKeyInCacheAtCharacterLevel(cacheKey);
+            credentials = inFlightRequests.execute(cacheKey, () -> {
+                AWSCredentials cachedCredentials = searchKeyInCache(cacheKey);
+                if (cachedCredentials != null) {
+                    return cachedCredentials;
+                }
+                return getCredentialsFromServiceAndCache(s3ControlClient, cacheKey, accountId, s3AccessGrantsAccessDeniedCache);
+            });
         }
-        if (credentials == null &&
-                (cacheKey.permission == Permission.READ ||
-                        cacheKey.permission == Permission.WRITE)) {
-            credentials = searchKeyInCacheAtCharacterLevel(cacheKey.toBuilder().permission(Permission.READWRITE).build());
+        return credentials;
+    }
+
+    /**
+     * This method is the asynchronous variant of {@link #getCredentials}. A cache hit returns a completed future without
+     * leaving the calling thread. A miss runs on the executor, and every caller missing on the same cacheKey, whether
+     * synchronous or asynchronous, shares a single call to Access Grants.
+     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
+     * @param accountId Account Id of the requester
+     * @param s3AccessGrantsAccessDeniedCache instance of S3AccessGrantsAccessDeniedCache
+     * @param executor executor the calls to Access Grants run on
+     * @return future completed with the Access Grants credentials, or with the exception received from the service.
+     */
+    protected CompletableFuture<AWSCredentials> getCredentialsAsync(AWSS3Control s3ControlClient, CacheKey cacheKey, String accountId,
+                                                                     S3AccessGrantsAccessDeniedCache s3AccessGrantsAccessDeniedCache,
+                                                                     Executor executor) {
+
+        logger.debug("Fetching credentials asynchronously from Access Grants for s3Prefix: " + cacheKey.s3Prefix);
+
+        long probeStart = stageTimings.start();
+        AWSCredentials credentials = searchKeyInCache(cacheKey);
+        stageTimings.record(Stage.CACHE_PROBE, probeStart);
+        recordLookup(credentials);
+        if (credentials != null) {
+            return CompletableFuture.completedFuture(credentials);
         }
-        if (credentials == null) {
-            try {
-                logger.debug("Credentials not available in the cache. Fetching credentials from Access Grants service.");
-                GetDataAccessResult getDataAccessResult = getCredentialsFromService(s3ControlClient, cacheKey, accountId, duration);
-                Credentials accessGrantsCredentials = getDataAccessResult.getCredentials();
-                long duration = getTTL(accessGrantsCredentials.getExpiration().toInstant());
-                AWSCredentials sessionCredentials = new BasicSessionCredentials(accessGrantsCredentials.getAccessKeyId(),
-                        accessGrantsCredentials.getSecretAccessKey(), accessGrantsCredentials.getSessionToken());
-                String accessGrantsTarget = getDataAccessResult.getMatchedGrantTarget();
-                if (accessGrantsTarget.endsWith("*")) {
-                    putValueInCache(cacheKey.toBuilder().s3Prefix(processMatchedGrantTarget(accessGrantsTarget)).build(), sessionCredentials, duration);
-                }
-                logger.debug("Successfully retrieved the credentials from Access Grants service");
-                return sessionCredentials;
-            } catch (AWSS3ControlException s3ControlException) {
-                logger.error("Exception occurred while fetching the credentials: " + s3ControlException);
-                if (s3ControlException.getStatusCode()== 403) {
-                    logger.debug("Caching the Access Denied request.");
-                    s3AccessGrantsAccessDeniedCache.putValueInCache(cacheKey, s3ControlException);
+        CompletableFuture<AWSCredentials> coveringRequest = inFlightRequests.isInFlight(cacheKey) ? null :
+                inFlightRequests.find(requesterAndBucket(cacheKey), inFlightKey -> mayCover(inFlightKey, cacheKey));
+        if (coveringRequest == null) {
+            return loadCredentialsAsync(s3ControlClient, cacheKey, accountId, s3AccessGrantsAccessDeniedCache, executor);
+        }
+        logger.debug("Waiting for an in-flight request to Access Grants which may cover s3Prefix: " + cacheKey.s3Prefix);
+        return coveringRequest.handle((coveringCredentials, e) -> searchKeyInCache(cacheKey))
+                .thenCompose(cachedCredentials -> cachedCredentials != null ? CompletableFuture.completedFuture(cachedCredentials) :
+                        loadCredentialsAsync(s3ControlClient, cacheKey, accountId, s3AccessGrantsAccessDeniedCache, executor));
+    }
+
+    private CompletableFuture<AWSCredentials> loadCredentialsAsync(AWSS3Control s3ControlClient, CacheKey cacheKey, String accountId,
+                                                                   S3AccessGrantsAccessDeniedCache s3AccessGrantsAccessDeniedCache,
+                                                                   Executor executor) {
+        return inFlightRequests.executeAsync(cacheKey, () -> {
+            AWSCredentials cachedCredentials = searchKeyInCache(cacheKey);
+            if (cachedCredentials != null) {
+                return cachedCredentials;
+            }
+            return getCredentialsFromServiceAndCache(s3ControlClient, cacheKey, accountId, s3AccessGrantsAccessDeniedCache);
+        }, executor);
+    }
+
+    private void recordLookup(AWSCredentials cachedCredentials) {
+        if (cachedCredentials != null) {
+            metricsPublisher.cacheHit(CacheName.ACCESS_GRANTS);
+        } else {
+            metricsPublisher.cacheMiss(CacheName.ACCESS_GRANTS);
+        }
+    }
+
+    /**
+     * This method searches for the cacheKey in the cache at prefix and character level, including the cache key with
+     * READWRITE permission when READ or WRITE is requested. Covering keys are looked up in the index of cached keys and
+     * confirmed with the cache, keys which have left the cache are dropped from the index unless they are cached again
+     * concurrently.
+     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
+     * @return cached Access Grants credentials, or null if none cover the cacheKey.
+     */
+    private AWSCredentials searchKeyInCache(CacheKey cacheKey) {
+        CacheKey coveringKey;
+        while ((coveringKey = cachedKeysIndex.findCoveringKey(cacheKey)) != null) {
+            CacheValue cacheValue = cache.getIfPresent(coveringKey);
+            if (cacheValue != null) {
+                logger.debug("Successfully retrieved credentials from the cache.");
+                if (cacheValue.isStale()) {
+                    revalidate(coveringKey, cacheValue);
                 }
-                throw s3ControlException;
+                return cacheValue.read();
             }
+            cachedKeysIndex.removeIfNotCached(coveringKey, cache.asMap());
+        }
+        return null;
+    }
+
+    /**
+     * This method waits for an in-flight request of the same requester for a parent prefix, whose grant may also cover
+     * the cacheKey, and searches the cache again once that request completes.
+     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
+     * @return cached Access Grants credentials, or null if no in-flight request covered the cacheKey.
+     */
+    private AWSCredentials waitForCoveringRequest(CacheKey cacheKey) {
+        CompletableFuture<AWSCredentials> coveringRequest = inFlightRequests.find(requesterAndBucket(cacheKey),
+                inFlightKey -> mayCover(inFlightKey, cacheKey));
+        if (coveringRequest == null) {
+            return null;
+        }
+        logger.debug("Waiting for an in-flight request to Access Grants which may cover s3Prefix: " + cacheKey.s3Prefix);
+        try {
+            coveringRequest.join();
+        } catch (CompletionException | CancellationException e) {
+            logger.debug("In-flight request to Access Grants failed, the s3Prefix will be requested on its own.");
+            return null;
+        }
+        return searchKeyInCache(cacheKey);
+    }
+
+    /**
+     * An in-flight request may cover the cacheKey when it was made by the same requester for a parent prefix of the
+     * cacheKey, with the same or READWRITE permission, since the grant it returns covers the parent prefix. The requester
+     * and the bucket are matched by the group the in-flight requests are searched in.
+     */
+    private boolean mayCover(CacheKey inFlightKey, CacheKey cacheKey) {
+        if (inFlightKey.equals(cacheKey)) {
+            return false;
+        }
+        if (inFlightKey.permission != cacheKey.permission && inFlightKey.permission != Permission.READWRITE) {
+            return false;
+        }
+        int parentLength = inFlightKey.s3Prefix.length();
+        return cacheKey.s3Prefix.startsWith(inFlightKey.s3Prefix) && (cacheKey.s3Prefix.length() == parentLength
+                || inFlightKey.s3Prefix.charAt(parentLength - 1) == '/' || cacheKey.s3Prefix.charAt(parentLength) == '/');
+    }
+
+    /**
+     * @return the requester and the bucket of the cacheKey, which in-flight requests are grouped by.
+     */
+    private static Map.Entry<CacheKey.Identity, String> requesterAndBucket(CacheKey cacheKey) {
+        int bucketEnd = cacheKey.s3Prefix.indexOf('/', S3_PREFIX_SCHEME_LENGTH);
+        String bucket = bucketEnd == -1 ? cacheKey.s3Prefix : cacheKey.s3Prefix.substring(0, bucketEnd);
+        return new AbstractMap.SimpleImmutableEntry<>(cacheKey.identity, bucket);
+    }
+
+    /**
+     * This method calls Access Grants service and caches the credentials when the matched grant target is a wildcard.
+     * Access Denied responses are cached in the access denied cache.
+     */
+    private AWSCredentials getCredentialsFromServiceAndCache(AWSS3Control s3ControlClient, CacheKey cacheKey, String accountId,
+                                                             S3AccessGrantsAccessDeniedCache s3AccessGrantsAccessDeniedCache) throws AWSS3ControlException {
+        try {
+            logger.debug("Credentials not available in the cache. Fetching credentials from Access Grants service.");
+            return getCredentialsFromServiceAndCache(s3ControlClient, cacheKey, accountId);
+        } catch (AWSS3ControlException s3ControlException) {
+            logger.error("Exception occurred while fetching the credentials: " + s3ControlException);
+            if (s3ControlException.getStatusCode()== 403) {
+                logger.debug("Caching the Access Denied request.");
+                s3AccessGrantsAccessDeniedCache.putValueInCache(cacheKey, s3ControlException);
+            }
+            throw s3ControlException;
+        }
+    }
+
+    private AWSCredentials getCredentialsFromServiceAndCache(AWSS3Control s3ControlClient, CacheKey cacheKey, String accountId) throws AWSS3ControlException {
+        return S3AccessGrantsMetrics.timeCacheLoad(metricsPublisher, CacheName.ACCESS_GRANTS,
+                () -> loadCredentialsFromService(s3ControlClient, cacheKey, accountId));
+    }
+
+    private AWSCredentials loadCredentialsFromService(AWSS3Control s3ControlClient, CacheKey cacheKey, String accountId) throws AWSS3ControlException {
+        GetDataAccessResult getDataAccessResult = getCredentialsFromService(s3ControlClient, cacheKey, accountId, duration);
+        Credentials accessGrantsCredentials = getDataAccessResult.getCredentials();
+        Instant expirationTime = accessGrantsCredentials.getExpiration().toInstant();
+        long duration = getTTL(expirationTime);
+        AWSCredentials sessionCredentials = new BasicSessionCredentials(accessGrantsCredentials.getAccessKeyId(),
+                accessGrantsCredentials.getSecretAccessKey(), accessGrantsCredentials.getSessionToken());
+        String accessGrantsTarget = getDataAccessResult.getMatchedGrantTarget();
+        if (accessGrantsTarget.endsWith("*")) {
+            CacheValue cacheValue = new CacheValue(sessionCredentials, s3ControlClient, cacheKey, accountId);
+            if (enableStaleWhileRevalidate) {
+                cacheValue.staleAfterNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+                duration = Math.max(duration, getStaleTTL(expirationTime));
+            }
+            putValueInCache(cacheKey.withS3Prefix(processMatchedGrantTarget(accessGrantsTarget)), cacheValue, duration);
+        }
+        logger.debug("Successfully retrieved the credentials from Access Grants service");
+        return sessionCredentials;
+    }
+
+    /**
+     * This method re-fetches the credentials of a cache entry before it expires, as long as the entry is still cached and
+     * has been read since it was cached. Entries which are not refreshed expire as usual. The refresh-ahead scheduler
+     * only dispatches the call to Access Grants, which runs on the executor of the cache.
+     * @param cacheKey key the entry is cached under.
+     * @param cacheValue the entry to refresh.
+     */
+    private void refreshAhead(CacheKey cacheKey, CacheValue cacheValue) {
+        if (cache.asMap().get(cacheKey) != cacheValue) {
+            return;
+        }
+        if (!cacheValue.accessed) {
+            logger.debug("Skipping the refresh of credentials which have not been read for s3Prefix: " + cacheKey.s3Prefix);
+            return;
+        }
+        logger.debug("Refreshing the credentials ahead of expiry for s3Prefix: " + cacheKey.s3Prefix);
+        CacheKey requestKey = cacheValue.requestKey;
+        inFlightRequests.executeAsync(requestKey,
+                () -> getCredentialsFromServiceAndCache(cacheValue.s3ControlClient, requestKey, cacheValue.accountId),
+                refreshExecutor).whenComplete((credentials, e) -> {
+                    if (e != null) {
+                        onRefreshFailure(cacheKey, cacheValue, e);
+                    }
+                });
+    }
+
+    /**
+     * This method re-fetches in the background the credentials of a cache entry which is past its soft expiry, while the
+     * entry keeps being served. Only one refresh runs per entry at a time. A refresh throttled or failed by Access Grants
+     * keeps serving the stale entry until it expires, only a denied refresh removes it.
+     * @param cacheKey key the entry is cached under.
+     * @param cacheValue the stale entry.
+     */
+    private void revalidate(CacheKey cacheKey, CacheValue cacheValue) {
+        if (cacheValue.s3ControlClient == null || !cacheValue.revalidating.compareAndSet(false, true)) {
+            return;
+        }
+        logger.debug("Serving stale credentials while refreshing them for s3Prefix: " + cacheKey.s3Prefix);
+        CacheKey requestKey = cacheValue.requestKey;
+        inFlightRequests.executeAsync(requestKey,
+                () -> getCredentialsFromServiceAndCache(cacheValue.s3ControlClient, requestKey, cacheValue.accountId),
+                refreshExecutor).whenComplete((credentials, e) -> {
+                    if (e != null) {
+                        onRefreshFailure(cacheKey, cacheValue, e);
+                        cacheValue.revalidating.set(false);
+                    }
+                });
+    }
+
+    /**
+     * Credentials which Access Grants refuses to refresh, because the grant was revoked or deleted, are removed from the
+     * cache. Other failures, e.g. throttling or server errors, leave them cached until they expire.
+     */
+    private void onRefreshFailure(CacheKey cacheKey, CacheValue cacheValue, Throwable failure) {
+        Throwable e = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (e instanceof AWSS3ControlException && S3AccessGrantsCacheUtils.isAccessDenial((AWSS3ControlException) e)) {
+            logger.debug("Exception occurred while refreshing the credentials, removing them from the cache: " + e);
+            if (cache.asMap().remove(cacheKey, cacheValue)) {
+                cachedKeysIndex.removeIfNotCached(cacheKey, cache.asMap());
+            }
+        } else {
+            logger.debug("Exception occurred while refreshing the credentials: " + e);
         }
-        return credentials;
     }
 
     /**
@@ -187,6 +561,16 @@ public class S3AccessGrantsCache {
         return (long) ((expirationTime.getEpochSecond() - now.getEpochSecond()) * (cacheExpirationTimePercentage / 100.0f));
     }
 
+    /**
+     * This method calculates the TTL of a cache entry served while stale, which is kept until the safety margin before the
+     * credentials expire.
+     * @param expirationTime of the credentials received from Access Grants
+     * @return TTL of a cache entry
+     */
+    long getStaleTTL(Instant expirationTime) {
+        return expirationTime.getEpochSecond() - Instant.now().getEpochSecond() - staleSafetyMarginSeconds;
+    }
+
     /**
      * This method calls Access Grants service to get the credentials.
      * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
@@ -198,7 +582,9 @@ public class S3AccessGrantsCache {
         if (s3ControlClient == null) {
             throw new IllegalArgumentException("S3ControlClient is required");
         }
+        long accountIdStart = stageTimings.start();
         String resolvedAccountId = s3AccessGrantsCachedAccountIdResolver.resolve(s3ControlClient, accountId, cacheKey.s3Prefix);
+        stageTimings.record(Stage.ACCOUNT_ID, accountIdStart);
         logger.debug("Fetching credentials from Access Grants for accountId: " + resolvedAccountId + ", s3Prefix: " + cacheKey.s3Prefix +
                 ", permission: " + cacheKey.permission + ", privilege: " + Privilege.Default);
         GetDataAccessRequest dataAccessRequest = new GetDataAccessRequest()
@@ -208,47 +594,13 @@ public class S3AccessGrantsCache {
                 .withPrivilege(Privilege.Default)
                 .withDurationSeconds(duration);
 
-        return s3ControlClient.getDataAccess(dataAccessRequest);
-    }
-
-    /**
-     * This method searches for the cacheKey in the cache. It will also search for a cache key with higher S3 prefix than
-     * requested.
-     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
-     * @return cached Access Grants credentials.
-     */
-    private AWSCredentials searchKeyInCacheAtPrefixLevel (CacheKey cacheKey) {
-        AWSCredentials cacheValue;
-        String prefix = cacheKey.s3Prefix;
-        while (!prefix.equals("s3:")) {
-            CacheKey key = cacheKey.toBuilder().s3Prefix(prefix).build();
-            cacheValue = cache.getIfPresent(key);
-            if (cacheValue != null) {
-                logger.debug("Successfully retrieved credentials from the cache.");
-                return cacheValue;
-            }
-            prefix = getNextPrefix(prefix);
+        long getDataAccessStart = stageTimings.start();
+        try {
+            return rateGovernor.call(() -> S3AccessGrantsMetrics.timeRemoteCall(metricsPublisher, RemoteCall.GET_DATA_ACCESS,
+                    () -> s3ControlClient.getDataAccess(dataAccessRequest)));
+        } finally {
+            stageTimings.record(Stage.GET_DATA_ACCESS, getDataAccessStart);
         }
-        return null;
-    }
-
-    /**
-     * This method looks for grants present in the cache of type "s3://bucketname/foo*"
-     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
-     * @return cached Access Grants credentials.
-     */
-    private AWSCredentials searchKeyInCacheAtCharacterLevel (CacheKey cacheKey) {
-        AWSCredentials cacheValue;
-        String prefix = cacheKey.s3Prefix;
-        while (!prefix.equals("s3://")) {
-            cacheValue = cache.getIfPresent(cacheKey.toBuilder().s3Prefix(prefix + "*").build());
-            if (cacheValue != null) {
-                logger.debug("Successfully retrieved credentials from the cache.");
-                return cacheValue;
-            }
-            prefix = getNextPrefixByChar(prefix);
-        }
-        return null;
     }
 
     /**
@@ -258,24 +610,26 @@ public class S3AccessGrantsCache {
      * @param duration TTL for the cache entry.
      */
     void putValueInCache(CacheKey cacheKey, AWSCredentials credentials, long duration) {
-        logger.debug("Caching the credentials for s3Prefix:" + cacheKey.s3Prefix
-                + " and permission: " + cacheKey.permission);
-        cache.put(cacheKey, credentials);
-        cache.policy().expireVariably().ifPresent(ev -> ev.setExpiresAfter(cacheKey, duration, TimeUnit.SECONDS));
+        putValueInCache(cacheKey, new CacheValue(credentials, null, null, null), duration);
     }
 
     /**
-     * This method splits S3Prefix on last "/" and returns the first part.
+     * This method puts an entry in cache together with its TTL, and schedules its refresh when refresh-ahead is enabled.
      */
-    private String getNextPrefix(String prefix) {
-        return prefix.substring(0, prefix.lastIndexOf("/"));
-    }
-
-    /**
-     * This methods returns a substring of the string with last character removed.
-     */
-    private String getNextPrefixByChar(String prefix) {
-        return prefix.substring(0, prefix.length()-1);
+    private void putValueInCache(CacheKey cacheKey, CacheValue cacheValue, long duration) {
+        logger.debug("Caching the credentials for s3Prefix:" + cacheKey.s3Prefix
+                + " and permission: " + cacheKey.permission);
+        cache.policy().expireVariably().ifPresent(ev -> ev.put(cacheKey, cacheValue, duration, TimeUnit.SECONDS));
+        cachedKeysIndex.put(cacheKey);
+        if (refreshAheadExecutor != null && cacheValue.s3ControlClient != null) {
+            long refreshAfterMillis = TimeUnit.SECONDS.toMillis(duration) * REFRESH_AHEAD_TIME_PERCENTAGE / 100;
+            try {
+                cacheValue.scheduledRefresh = refreshAheadExecutor.schedule(() -> refreshAhead(cacheKey, cacheValue),
+                        refreshAfterMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Refresh-ahead has been shut down, the credentials will not be refreshed.");
+            }
+        }
     }
 
     /**
@@ -290,17 +644,127 @@ public class S3AccessGrantsCache {
         return matchedGrantTarget;
     }
 
+    /**
+     * This method removes the entry the credentials of the cacheKey were served from, e.g. after S3 rejected them because
+     * the grant was revoked or narrowed. An entry which has been refreshed with other credentials since is left in place,
+     * as are the entries of other grants.
+     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
+     * @param credentials Access Grants credentials which were rejected.
+     * @return true if the entry was removed.
+     */
+    boolean invalidate(CacheKey cacheKey, AWSCredentials credentials) {
+        CacheKey coveringKey;
+        while ((coveringKey = cachedKeysIndex.findCoveringKey(cacheKey)) != null) {
+            CacheValue cacheValue = cache.asMap().get(coveringKey);
+            if (cacheValue != null) {
+                if (!cacheValue.credentials.getAWSAccessKeyId().equals(credentials.getAWSAccessKeyId())) {
+                    return false;
+                }
+                logger.debug("Removing the rejected credentials for s3Prefix: " + coveringKey.s3Prefix + " from the cache.");
+                if (cache.asMap().remove(coveringKey, cacheValue)) {
+                    cachedKeysIndex.removeIfNotCached(coveringKey, cache.asMap());
+                    return true;
+                }
+                return false;
+            }
+            cachedKeysIndex.removeIfNotCached(coveringKey, cache.asMap());
+        }
+        return false;
+    }
+
     /**
      * Invalidates the cache.
      */
     void invalidateCache() {
         cache.invalidateAll();
+        cachedKeysIndex.clear();
+    }
+
+    /**
+     * This method lists the grants credentials are cached for, hottest first, so that they can be saved in a snapshot.
+     * Entries cached without the request they were fetched for cannot be fetched again and are left out.
+     * @param limit maximum number of grants to list.
+     * @return grants identified by the access key id of the requester, the permission and S3 prefix requested and the
+     * account id the request was made with.
+     */
+    List<S3AccessGrantsCacheSnapshot.Grant> exportGrants(int limit) {
+        Map<CacheKey, CacheValue> hottest = cache.policy().eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElseGet(cache::asMap);
+        List<S3AccessGrantsCacheSnapshot.Grant> grants = new ArrayList<>();
+        for (CacheValue cacheValue : hottest.values()) {
+            if (grants.size() == limit) {
+                break;
+            }
+            CacheKey requestKey = cacheValue.requestKey;
+            if (requestKey != null && cacheValue.accountId != null) {
+                grants.add(new S3AccessGrantsCacheSnapshot.Grant(requestKey.credentials.getAWSAccessKeyId(), requestKey.permission,
+                        requestKey.s3Prefix, cacheValue.accountId));
+            }
+        }
+        return grants;
+    }
+
+    S3AccessGrantsCachedAccountIdResolver getAccountIdResolver() {
+        return s3AccessGrantsCachedAccountIdResolver;
     }
 
     public Cache getCache() {
         return cache;
     }
 
+    /**
+     * Stops refreshing cache entries ahead of expiry. Cached entries stay available until they expire.
+     */
+    void close() {
+        if (refreshAheadExecutor != null) {
+            refreshAheadExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Credentials cached for a grant, along with what is needed to re-fetch them ahead of expiry.
+     */
+    private static final class CacheValue {
+        private final AWSCredentials credentials;
+        private final AWSS3Control s3ControlClient;
+        private final CacheKey requestKey;
+        private final String accountId;
+        private volatile boolean accessed;
+        private volatile Future<?> scheduledRefresh;
+        private volatile long staleAfterNanos;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        private CacheValue(AWSCredentials credentials, AWSS3Control s3ControlClient, CacheKey requestKey, String accountId) {
+            this.credentials = credentials;
+            this.s3ControlClient = s3ControlClient;
+            this.requestKey = requestKey;
+            this.accountId = accountId;
+        }
+
+        private AWSCredentials read() {
+            if (!accessed) {
+                accessed = true;
+            }
+            return credentials;
+        }
+
+        /**
+         * @return true when the entry is past its soft expiry and is only served until it has been refreshed.
+         */
+        private boolean isStale() {
+            long staleAfter = staleAfterNanos;
+            return staleAfter != 0 && System.nanoTime() - staleAfter > 0;
+        }
+
+        private void cancelRefresh() {
+            Future<?> refresh = scheduledRefresh;
+            if (refresh != null) {
+                refresh.cancel(false);
+            }
+        }
+    }
+
     private static class CustomCacheExpiry<K, V> implements Expiry<K, V> {
 
         @Override
@@ -0,0 +1,209 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3control.model.Permission;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The non-secret state of the caches, saved so that a restarted application does not have to learn it again from the
+ * services: the account of the Access Grants instance of every bucket, the region of every bucket, and the grants most
+ * recently used, hottest first. Credentials are never saved, a grant is identified by the access key id of the requester
+ * and its credentials are fetched again when the snapshot is restored.
+ */
+public final class S3AccessGrantsCacheSnapshot {
+    private static final int MAGIC = 0x53334147; // "S3AG"
+    private static final int VERSION = 1;
+    private static final Log logger = LogFactory.getLog(S3AccessGrantsCacheSnapshot.class);
+
+    private final Map<String, String> bucketAccountIds;
+    private final Map<String, Regions> bucketRegions;
+    private final List<Grant> grants;
+
+    S3AccessGrantsCacheSnapshot(Map<String, String> bucketAccountIds, Map<String, Regions> bucketRegions, List<Grant> grants) {
+        this.bucketAccountIds = Collections.unmodifiableMap(bucketAccountIds);
+        this.bucketRegions = Collections.unmodifiableMap(bucketRegions);
+        this.grants = Collections.unmodifiableList(grants);
+    }
+
+    public Map<String, String> getBucketAccountIds() {
+        return bucketAccountIds;
+    }
+
+    public Map<String, Regions> getBucketRegions() {
+        return bucketRegions;
+    }
+
+    /**
+     * @return grants which were cached when the snapshot was taken, hottest first.
+     */
+    public List<Grant> getGrants() {
+        return grants;
+    }
+
+    /**
+     * This method writes the snapshot to a file. The snapshot is written to a temporary file of its own next to it first,
+     * which then replaces the file, so that neither a crash nor a concurrent writer ever leaves a partial snapshot behind.
+     * @param file file to write the snapshot to
+     */
+    public void writeTo(Path file) throws IOException {
+        Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                writeTo(outputStream);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(bucketAccountIds.size());
+        for (Map.Entry<String, String> entry : bucketAccountIds.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.writeInt(bucketRegions.size());
+        for (Map.Entry<String, Regions> entry : bucketRegions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().getName());
+        }
+        out.writeInt(grants.size());
+        for (Grant grant : grants) {
+            out.writeUTF(grant.accessKeyId);
+            out.writeUTF(grant.permission.toString());
+            out.writeUTF(grant.s3Prefix);
+            out.writeUTF(grant.accountId);
+        }
+        out.flush();
+    }
+
+    /**
+     * This method reads a snapshot written by writeTo. Unknown regions and permissions are skipped.
+     * @param file file to read the snapshot from
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot, or is truncated or corrupt
+     */
+    public static S3AccessGrantsCacheSnapshot readFrom(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return readFrom(inputStream);
+        }
+    }
+
+    static S3AccessGrantsCacheSnapshot readFrom(InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an S3 Access Grants cache snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported S3 Access Grants cache snapshot version: " + version);
+        }
+        int bucketAccountIdCount = readCount(in);
+        Map<String, String> bucketAccountIds = new HashMap<>();
+        for (int i = 0; i < bucketAccountIdCount; i++) {
+            bucketAccountIds.put(in.readUTF(), in.readUTF());
+        }
+        int bucketRegionCount = readCount(in);
+        Map<String, Regions> bucketRegions = new HashMap<>();
+        for (int i = 0; i < bucketRegionCount; i++) {
+            String bucket = in.readUTF();
+            String region = in.readUTF();
+            try {
+                bucketRegions.put(bucket, Regions.fromName(region));
+            } catch (IllegalArgumentException e) {
+                logger.debug("Skipping the unknown region " + region + " of bucket " + bucket);
+            }
+        }
+        int grantCount = readCount(in);
+        List<Grant> grants = new ArrayList<>();
+        for (int i = 0; i < grantCount; i++) {
+            String accessKeyId = in.readUTF();
+            String permission = in.readUTF();
+            String s3Prefix = in.readUTF();
+            String accountId = in.readUTF();
+            try {
+                grants.add(new Grant(accessKeyId, Permission.fromValue(permission), s3Prefix, accountId));
+            } catch (IllegalArgumentException e) {
+                logger.debug("Skipping the grant of s3Prefix " + s3Prefix + " with the unknown permission " + permission);
+            }
+        }
+        return new S3AccessGrantsCacheSnapshot(bucketAccountIds, bucketRegions, grants);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt S3 Access Grants cache snapshot, negative entry count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * A grant credentials were cached for: the S3 prefix and permission requested, the access key id of the requester
+     * and the account id the request was made with.
+     */
+    public static final class Grant {
+        private final String accessKeyId;
+        private final Permission permission;
+        private final String s3Prefix;
+        private final String accountId;
+
+        Grant(String accessKeyId, Permission permission, String s3Prefix, String accountId) {
+            this.accessKeyId = accessKeyId;
+            this.permission = permission;
+            this.s3Prefix = s3Prefix;
+            this.accountId = accountId;
+        }
+
+        public String getAccessKeyId() {
+            return accessKeyId;
+        }
+
+        public Permission getPermission() {
+            return permission;
+        }
+
+        public String getS3Prefix() {
+            return s3Prefix;
+        }
+
+        public String getAccountId() {
+            return accountId;
+        }
+    }
+}
@@ -16,6 +16,12 @@
 package com.amazonaws.s3accessgrants.cache;
 
 import com.amazonaws.arn.Arn;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.CacheName;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.RemoteCall;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsMetrics;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsRateGovernor;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsSingleFlight;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.AWSS3ControlException;
 import com.amazonaws.services.s3control.model.GetAccessGrantsInstanceForPrefixRequest;
@@ -24,22 +30,48 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import javax.validation.constraints.NotNull;
 import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_ACCOUNT_ID_MAX_CACHE_SIZE;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_ACCOUNT_ID_RESOLVE_ALL_PARALLELISM;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_ACCOUNT_ID_MAX_CACHE_SIZE;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheUtils.getBucketName;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheUtils.isCacheableFailure;
 
 public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAccountIdResolver {
 
     private int maxCacheSize;
     private int expireCacheAfterWriteSeconds;
+    private int expireFailureCacheAfterWriteSeconds;
     private static final Log logger = LogFactory.getLog(S3AccessGrantsCachedAccountIdResolver.class);
     private Cache<String, String> cache;
+    private Cache<String, AWSS3ControlException> failureCache;
+    private Map<String, String> pinnedAccountIds = Collections.emptyMap();
+    private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+    private S3AccessGrantsRateGovernor rateGovernor = S3AccessGrantsRateGovernor.disabled();
+    private Executor executor = S3AccessGrantsExecutors.defaultExecutor();
+    private int resolveAllParallelism;
+    private final S3AccessGrantsSingleFlight<Map.Entry<AWSS3Control, String>, String> inFlightResolutions = new S3AccessGrantsSingleFlight<>();
 
     public int maxCacheSize() {
         return maxCacheSize;
@@ -49,11 +81,17 @@ public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAcco
         return expireCacheAfterWriteSeconds;
     }
 
+    public int expireFailureCacheAfterWriteSeconds() {
+        return expireFailureCacheAfterWriteSeconds;
+    }
+
     protected CacheStats getCacheStats() { return cache.stats(); }
 
     S3AccessGrantsCachedAccountIdResolver() {
         this.maxCacheSize = DEFAULT_ACCOUNT_ID_MAX_CACHE_SIZE;
         this.expireCacheAfterWriteSeconds = DEFAULT_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+        this.expireFailureCacheAfterWriteSeconds = DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+        this.resolveAllParallelism = DEFAULT_ACCOUNT_ID_RESOLVE_ALL_PARALLELISM;
     }
 
 
@@ -65,18 +103,129 @@ public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAcco
         return new BuilderImpl();
     }
 
+    /**
+     * This method resolves the account id of the Access Grants instance owning the bucket of the prefix. Concurrent misses
+     * for the same bucket made with the same S3 Control client share a single call to the service, so that a caller is
+     * never handed the failure of another caller's credentials. Pinned buckets are never looked up.
+     */
     @Override
     public String resolve(AWSS3Control s3ControlClient, String accountId, String s3Prefix) {
         String bucketName = getBucketName(s3Prefix);
-        String s3PrefixAccountId = cache.getIfPresent(bucketName);
+        String s3PrefixAccountId = pinnedAccountIds.get(bucketName);
         if (s3PrefixAccountId == null) {
+            s3PrefixAccountId = cache.getIfPresent(bucketName);
+        }
+        if (s3PrefixAccountId == null) {
+            AWSS3ControlException failure = failureCache.getIfPresent(bucketName);
+            if (failure != null) {
+                logger.debug("Account Id of the bucket failed to resolve recently. Not calling the service again.");
+                metricsPublisher.cacheHit(CacheName.ACCOUNT_ID_FAILURE);
+                throw failure;
+            }
             logger.debug("Account Id not available in the cache. Fetching account from server.");
-            s3PrefixAccountId = resolveFromService(s3ControlClient, accountId, s3Prefix);
-            cache.put(bucketName, s3PrefixAccountId);
+            metricsPublisher.cacheMiss(CacheName.ACCOUNT_ID);
+            s3PrefixAccountId = inFlightResolutions.execute(new AbstractMap.SimpleImmutableEntry<>(s3ControlClient, bucketName),
+                    () -> load(s3ControlClient, accountId, s3Prefix, bucketName));
+        } else {
+            metricsPublisher.cacheHit(CacheName.ACCOUNT_ID);
         }
         return s3PrefixAccountId;
     }
 
+    /**
+     * This method resolves the account ids of several buckets, calling the service for at most resolveAllParallelism
+     * buckets at a time. Buckets whose account id cannot be resolved are left out of the result.
+     * @param s3ControlClient S3 Control client used to call GetAccessGrantsInstanceForPrefix
+     * @param accountId AWS AccountId of the requester
+     * @param buckets names of the buckets
+     * @return account ids of the Access Grants instances keyed by bucket name
+     */
+    public Map<String, String> resolveAll(AWSS3Control s3ControlClient, String accountId, Collection<String> buckets) {
+        if (buckets == null) {
+            throw new IllegalArgumentException("buckets is required");
+        }
+        Set<String> uniqueBuckets = new LinkedHashSet<>(buckets);
+        Map<String, String> accountIds = new ConcurrentHashMap<>(cache.getAllPresent(uniqueBuckets));
+        for (String bucket : uniqueBuckets) {
+            String pinnedAccountId = pinnedAccountIds.get(bucket);
+            if (pinnedAccountId != null) {
+                accountIds.put(bucket, pinnedAccountId);
+            }
+        }
+        int cacheHits = accountIds.size();
+        for (int i = 0; i < cacheHits; i++) {
+            metricsPublisher.cacheHit(CacheName.ACCOUNT_ID);
+        }
+        Semaphore permits = new Semaphore(resolveAllParallelism);
+        List<CompletableFuture<Void>> resolutions = new ArrayList<>();
+        for (String bucket : uniqueBuckets) {
+            if (accountIds.containsKey(bucket)) {
+                continue;
+            }
+            permits.acquireUninterruptibly();
+            CompletableFuture<Void> resolution;
+            try {
+                resolution = CompletableFuture.runAsync(
+                        () -> accountIds.put(bucket, resolve(s3ControlClient, accountId, "s3://" + bucket)), executor);
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+            resolutions.add(resolution.whenComplete((result, e) -> {
+                permits.release();
+                if (e != null) {
+                    logger.debug("Unable to resolve the account id of bucket " + bucket + ": " + e);
+                }
+            }));
+        }
+        CompletableFuture.allOf(resolutions.toArray(new CompletableFuture<?>[0])).handle((result, e) -> null).join();
+        return accountIds;
+    }
+
+    private String load(AWSS3Control s3ControlClient, String accountId, String s3Prefix, String bucketName) {
+        // The call for the bucket may have completed between the cache lookup and joining the in-flight calls.
+        String s3PrefixAccountId = cache.getIfPresent(bucketName);
+        if (s3PrefixAccountId != null) {
+            return s3PrefixAccountId;
+        }
+        try {
+            s3PrefixAccountId = S3AccessGrantsMetrics.timeCacheLoad(metricsPublisher, CacheName.ACCOUNT_ID,
+                    () -> resolveFromService(s3ControlClient, accountId, s3Prefix));
+        } catch (AWSS3ControlException e) {
+            if (isCacheableFailure(e)) {
+                failureCache.put(bucketName, e);
+            }
+            throw e;
+        }
+        cache.put(bucketName, s3PrefixAccountId);
+        return s3PrefixAccountId;
+    }
+
+    /**
+     * @return a copy of the account ids currently cached, keyed by bucket name
+     */
+    Map<String, String> export() {
+        return new HashMap<>(cache.asMap());
+    }
+
+    /**
+     * This method adds account ids to the cache, e.g. from a snapshot of a previous run.
+     * @param bucketAccountIds account ids of the Access Grants instances keyed by bucket name
+     */
+    void seed(Map<String, String> bucketAccountIds) {
+        cache.putAll(bucketAccountIds);
+    }
+
+    /**
+     * This method removes the account id cached for the bucket, so that it is looked up again on the next request.
+     * Pinned buckets are not affected.
+     * @param bucket name of the bucket
+     */
+    void invalidate(String bucket) {
+        cache.invalidate(bucket);
+        failureCache.invalidate(bucket);
+    }
+
     /**
      * @param accountId AWS AccountId from the request context parameter
      * @param s3Prefix e.g., s3://bucket-name/path/to/helloworld.txt
@@ -86,9 +235,10 @@ public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAcco
         if (s3ControlClient == null) {
             throw new IllegalArgumentException("S3ControlClient is required");
         }
-        GetAccessGrantsInstanceForPrefixResult accessGrantsInstanceForPrefix =
-                s3ControlClient.getAccessGrantsInstanceForPrefix(new GetAccessGrantsInstanceForPrefixRequest()
-                        .withS3Prefix(s3Prefix).withAccountId(accountId));
+        GetAccessGrantsInstanceForPrefixResult accessGrantsInstanceForPrefix = rateGovernor.call(() -> S3AccessGrantsMetrics.timeRemoteCall(
+                metricsPublisher, RemoteCall.GET_ACCESS_GRANTS_INSTANCE_FOR_PREFIX,
+                () -> s3ControlClient.getAccessGrantsInstanceForPrefix(new GetAccessGrantsInstanceForPrefixRequest()
+                        .withS3Prefix(s3Prefix).withAccountId(accountId))));
         String accessGrantsInstanceArn = accessGrantsInstanceForPrefix.getAccessGrantsInstanceArn();
         try {
             Arn arn = Arn.fromString(accessGrantsInstanceArn);
@@ -104,11 +254,29 @@ public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAcco
         Builder maxCacheSize(int maxCacheSize);
 
         Builder expireCacheAfterWriteSeconds(int expireCacheAfterWriteSeconds);
+
+        Builder expireFailureCacheAfterWriteSeconds(int expireFailureCacheAfterWriteSeconds);
+
+        Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher);
+
+        Builder rateGovernor(S3AccessGrantsRateGovernor rateGovernor);
+
+        Builder executor(Executor executor);
+
+        Builder resolveAllParallelism(int resolveAllParallelism);
+
+        Builder pinnedAccountIds(Map<String, String> pinnedAccountIds);
     }
 
     static final class BuilderImpl implements Builder {
         private int maxCacheSize = DEFAULT_ACCOUNT_ID_MAX_CACHE_SIZE;
         private int expireCacheAfterWriteSeconds = DEFAULT_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+        private int expireFailureCacheAfterWriteSeconds = DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+        private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+        private S3AccessGrantsRateGovernor rateGovernor = S3AccessGrantsRateGovernor.disabled();
+        private Executor executor = S3AccessGrantsExecutors.defaultExecutor();
+        private int resolveAllParallelism = DEFAULT_ACCOUNT_ID_RESOLVE_ALL_PARALLELISM;
+        private Map<String, String> pinnedAccountIds = Collections.emptyMap();
 
         private BuilderImpl() {
         }
@@ -116,6 +284,12 @@ public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAcco
         public BuilderImpl(S3AccessGrantsCachedAccountIdResolver s3AccessGrantsCachedAccountIdResolver) {
             maxCacheSize(s3AccessGrantsCachedAccountIdResolver.maxCacheSize);
             expireCacheAfterWriteSeconds(s3AccessGrantsCachedAccountIdResolver.expireCacheAfterWriteSeconds);
+            expireFailureCacheAfterWriteSeconds(s3AccessGrantsCachedAccountIdResolver.expireFailureCacheAfterWriteSeconds);
+            metricsPublisher(s3AccessGrantsCachedAccountIdResolver.metricsPublisher);
+            rateGovernor(s3AccessGrantsCachedAccountIdResolver.rateGovernor);
+            executor(s3AccessGrantsCachedAccountIdResolver.executor);
+            resolveAllParallelism(s3AccessGrantsCachedAccountIdResolver.resolveAllParallelism);
+            pinnedAccountIds(s3AccessGrantsCachedAccountIdResolver.pinnedAccountIds);
         }
 
         public int maxCacheSize() {
@@ -146,14 +320,101 @@ public class S3AccessGrantsCachedAccountIdResolver implements S3AccessGrantsAcco
             return this;
         }
 
+        @Override
+        public Builder expireFailureCacheAfterWriteSeconds(int expireFailureCacheAfterWriteSeconds) {
+            if (expireFailureCacheAfterWriteSeconds <= 0 || expireFailureCacheAfterWriteSeconds > MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS) {
+                throw new IllegalArgumentException(String.format("expireFailureCacheAfterWriteSeconds needs to be in range (0, %d]",
+                        MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS));
+            }
+            this.expireFailureCacheAfterWriteSeconds = expireFailureCacheAfterWriteSeconds;
+            return this;
+        }
+
+        @Override
+        public Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher) {
+            if (metricsPublisher == null) {
+                throw new IllegalArgumentException("metricsPublisher is required");
+            }
+            this.metricsPublisher = metricsPublisher;
+            return this;
+        }
+
+        @Override
+        public Builder rateGovernor(S3AccessGrantsRateGovernor rateGovernor) {
+            if (rateGovernor == null) {
+                throw new IllegalArgumentException("rateGovernor is required");
+            }
+            this.rateGovernor = rateGovernor;
+            return this;
+        }
+
+        /**
+         * Executor on which resolveAll calls the service. Defaults to a shared bounded pool of daemon threads, or to virtual
+         * threads on Java 21 and later.
+         */
+        @Override
+        public Builder executor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor is required");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maximum number of buckets resolveAll calls the service for at the same time.
+         */
+        @Override
+        public Builder resolveAllParallelism(int resolveAllParallelism) {
+            if (resolveAllParallelism <= 0) {
+                throw new IllegalArgumentException("resolveAllParallelism needs to be positive");
+            }
+            this.resolveAllParallelism = resolveAllParallelism;
+            return this;
+        }
+
+        /**
+         * Account ids of the Access Grants instances of buckets known ahead of time, keyed by bucket name. They never
+         * expire and are not counted against maxCacheSize.
+         */
+        @Override
+        public Builder pinnedAccountIds(Map<String, String> pinnedAccountIds) {
+            if (pinnedAccountIds == null) {
+                throw new IllegalArgumentException("pinnedAccountIds is required");
+            }
+            this.pinnedAccountIds = Collections.unmodifiableMap(new HashMap<>(pinnedAccountIds));
+            return this;
+        }
+
         @Override
         public S3AccessGrantsCachedAccountIdResolver build() {
             S3AccessGrantsCachedAccountIdResolver resolver = new S3AccessGrantsCachedAccountIdResolver();
+            S3AccessGrantsMetricsPublisher metricsPublisher = this.metricsPublisher;
             resolver.maxCacheSize = maxCacheSize();
             resolver.expireCacheAfterWriteSeconds = expireCAcheAfterWriteSeconds();
+            resolver.expireFailureCacheAfterWriteSeconds = expireFailureCacheAfterWriteSeconds;
+            resolver.metricsPublisher = metricsPublisher;
+            resolver.rateGovernor = rateGovernor;
+            resolver.executor = executor;
+            resolver.resolveAllParallelism = resolveAllParallelism;
+            resolver.pinnedAccountIds = pinnedAccountIds;
             resolver.cache = Caffeine.newBuilder()
                     .maximumSize(maxCacheSize)
                     .expireAfterWrite(Duration.ofSeconds(expireCacheAfterWriteSeconds))
+                    .removalListener((String key, String value, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            metricsPublisher.cacheEviction(CacheName.ACCOUNT_ID);
+                        }
+                    })
+                    .build();
+            resolver.failureCache = Caffeine.newBuilder()
+                    .maximumSize(maxCacheSize)
+                    .expireAfterWrite(Duration.ofSeconds(expireFailureCacheAfterWriteSeconds))
+                    .removalListener((String key, AWSS3ControlException value, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            metricsPublisher.cacheEviction(CacheName.ACCOUNT_ID_FAILURE);
+                        }
+                    })
                     .build();
             return resolver;
         }
@@ -17,28 +17,60 @@ package com.amazonaws.s3accessgrants.cache;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.CacheName;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.RemoteCall;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsMetrics;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsSingleFlight;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.HeadBucketRequest;
 import com.amazonaws.services.s3.model.HeadBucketResult;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.BUCKET_REGION_CACHE_SIZE;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.BUCKET_REGION_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_BUCKET_REGION_RESOLVE_ALL_PARALLELISM;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_BUCKET_REGION_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_BUCKET_REGION_CACHE_SIZE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheUtils.isCacheableFailure;
 
 public class S3AccessGrantsCachedBucketRegionResolver {
 
     private Cache<String, Regions> cache;
+    private Cache<String, AmazonServiceException> failureCache;
+    private Map<String, Regions> pinnedRegions = Collections.emptyMap();
     private int maxCacheSize;
     private int expireCacheAfterWriteSeconds;
+    private int expireFailureCacheAfterWriteSeconds;
+    private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+    private Executor executor = S3AccessGrantsExecutors.defaultExecutor();
+    private int resolveAllParallelism;
+    private final S3AccessGrantsSingleFlight<Map.Entry<Object, String>, Regions> inFlightResolutions = new S3AccessGrantsSingleFlight<>();
     private static final Log logger = LogFactory.getLog(S3AccessGrantsCachedBucketRegionResolver.class);
 
     public int getMaxCacheSize() {
@@ -57,6 +89,10 @@ public class S3AccessGrantsCachedBucketRegionResolver {
         return maxCacheSize;
     }
 
+    public int expireFailureCacheAfterWriteSeconds() {
+        return expireFailureCacheAfterWriteSeconds;
+    }
+
     protected CacheStats getCacheStats() { return cache.stats(); }
 
     public S3AccessGrantsCachedBucketRegionResolver.Builder toBuilder() {
@@ -70,32 +106,189 @@ public class S3AccessGrantsCachedBucketRegionResolver {
     private S3AccessGrantsCachedBucketRegionResolver() {
         this.maxCacheSize = BUCKET_REGION_CACHE_SIZE;
         this.expireCacheAfterWriteSeconds = BUCKET_REGION_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+        this.expireFailureCacheAfterWriteSeconds = DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+        this.resolveAllParallelism = DEFAULT_BUCKET_REGION_RESOLVE_ALL_PARALLELISM;
     }
 
     public Regions resolve(AmazonS3 s3Client, String bucket) throws AmazonS3Exception{
-        Regions bucketRegion = cache.getIfPresent(bucket);
+        return resolve(s3Client, () -> s3Client, bucket);
+    }
+
+    /**
+     * This method resolves the region of the bucket. The S3 client is only requested from the supplier when the region
+     * is not available in the cache. A bucket which does not exist is remembered for a short time, during which the
+     * failure is rethrown without calling the service. Concurrent misses for the same bucket made with the same supplier
+     * share a single headBucket() call, so that a caller is never handed the failure of another caller's credentials.
+     * Pinned buckets are never looked up.
+     * @param s3ClientSupplier supplies the S3 client used to make the headBucket() call
+     * @param bucket name of the bucket
+     * @return region the bucket is in
+     */
+    public Regions resolve(Supplier<AmazonS3> s3ClientSupplier, String bucket) throws AmazonS3Exception{
+        return resolve(s3ClientSupplier, s3ClientSupplier, bucket);
+    }
+
+    private Regions resolve(Object caller, Supplier<AmazonS3> s3ClientSupplier, String bucket) {
+        Regions bucketRegion = pinnedRegions.get(bucket);
+        if (bucketRegion == null) {
+            bucketRegion = cache.getIfPresent(bucket);
+        }
         if(bucketRegion == null) {
-            logger.debug("bucket region not available in cache, fetching the region from the service!");
-            if (s3Client == null) {
-                throw new IllegalArgumentException("S3Client is required for the bucket region resolver!");
-            }
-            bucketRegion = resolveFromService(s3Client, bucket);
-            if(bucketRegion != null) {
-                cache.put(bucket, bucketRegion);
+            AmazonServiceException failure = failureCache.getIfPresent(bucket);
+            if (failure != null) {
+                logger.debug("bucket region failed to resolve recently, not calling the service again!");
+                metricsPublisher.cacheHit(CacheName.BUCKET_REGION_FAILURE);
+                throw failure;
             }
+            logger.debug("bucket region not available in cache, fetching the region from the service!");
+            metricsPublisher.cacheMiss(CacheName.BUCKET_REGION);
+            bucketRegion = inFlightResolutions.execute(new AbstractMap.SimpleImmutableEntry<>(caller, bucket),
+                    () -> load(s3ClientSupplier, bucket));
         } else {
             logger.debug("bucket region available in cache!");
+            metricsPublisher.cacheHit(CacheName.BUCKET_REGION);
+        }
+        return bucketRegion;
+
+    }
+
+    /**
+     * This method resolves the regions of several buckets, making at most resolveAllParallelism headBucket() calls at a
+     * time. Buckets whose region cannot be resolved are left out of the result.
+     * @param s3ClientSupplier supplies the S3 client used to make the headBucket() calls
+     * @param buckets names of the buckets
+     * @return regions keyed by bucket name
+     */
+    public Map<String, Regions> resolveAll(Supplier<AmazonS3> s3ClientSupplier, Collection<String> buckets) {
+        if (buckets == null) {
+            throw new IllegalArgumentException("buckets is required");
+        }
+        Set<String> uniqueBuckets = new LinkedHashSet<>(buckets);
+        Map<String, Regions> bucketRegions = new ConcurrentHashMap<>(cache.getAllPresent(uniqueBuckets));
+        for (String bucket : uniqueBuckets) {
+            Regions pinnedRegion = pinnedRegions.get(bucket);
+            if (pinnedRegion != null) {
+                bucketRegions.put(bucket, pinnedRegion);
+            }
+        }
+        int cacheHits = bucketRegions.size();
+        for (int i = 0; i < cacheHits; i++) {
+            metricsPublisher.cacheHit(CacheName.BUCKET_REGION);
+        }
+        Semaphore permits = new Semaphore(resolveAllParallelism);
+        List<CompletableFuture<Void>> resolutions = new ArrayList<>();
+        for (String bucket : uniqueBuckets) {
+            if (bucketRegions.containsKey(bucket)) {
+                continue;
+            }
+            permits.acquireUninterruptibly();
+            CompletableFuture<Void> resolution;
+            try {
+                resolution = CompletableFuture.runAsync(() -> bucketRegions.put(bucket, resolve(s3ClientSupplier, bucket)), executor);
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+            resolutions.add(resolution.whenComplete((result, e) -> {
+                permits.release();
+                if (e != null) {
+                    logger.debug("Unable to resolve the region of bucket " + bucket + ": " + e);
+                }
+            }));
+        }
+        CompletableFuture.allOf(resolutions.toArray(new CompletableFuture<?>[0])).handle((result, e) -> null).join();
+        return bucketRegions;
+    }
+
+    private Regions load(Supplier<AmazonS3> s3ClientSupplier, String bucket) {
+        // The call for the bucket may have completed between the cache lookup and joining the in-flight calls.
+        Regions bucketRegion = cache.getIfPresent(bucket);
+        if (bucketRegion != null) {
+            return bucketRegion;
+        }
+        AmazonS3 s3Client = s3ClientSupplier == null ? null : s3ClientSupplier.get();
+        if (s3Client == null) {
+            throw new IllegalArgumentException("S3Client is required for the bucket region resolver!");
+        }
+        try {
+            bucketRegion = S3AccessGrantsMetrics.timeCacheLoad(metricsPublisher, CacheName.BUCKET_REGION,
+                    () -> resolveFromService(s3Client, bucket));
+        } catch (AmazonServiceException e) {
+            if (isCacheableFailure(e)) {
+                failureCache.put(bucket, e);
+            }
+            throw e;
+        }
+        if(bucketRegion != null) {
+            cache.put(bucket, bucketRegion);
         }
         return bucketRegion;
+    }
 
+    /**
+     * This method caches a region observed for the bucket, e.g. in the x-amz-bucket-region header of a response from S3,
+     * so that the region does not have to be looked up with headBucket(). A region which is already cached is only
+     * written again once half of its time in the cache has passed, so that regions observed on every response do not
+     * expire while avoiding a cache write per response.
+     * @param bucket name of the bucket
+     * @param region name of the region the bucket is in, e.g. us-east-1
+     */
+    public void learn(String bucket, String region) {
+        if (bucket == null || region == null || pinnedRegions.containsKey(bucket)) {
+            return;
+        }
+        Regions bucketRegion;
+        try {
+            bucketRegion = Regions.fromName(region);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring unknown region " + region + " observed for bucket " + bucket);
+            return;
+        }
+        if (bucketRegion == cache.getIfPresent(bucket) && !isHalfExpired(bucket)) {
+            return;
+        }
+        cache.put(bucket, bucketRegion);
+        failureCache.invalidate(bucket);
+    }
+
+    private boolean isHalfExpired(String bucket) {
+        return cache.policy().expireAfterWrite()
+                .map(expiration -> expiration.ageOf(bucket, TimeUnit.SECONDS).orElse(0) > expireCacheAfterWriteSeconds / 2)
+                .orElse(false);
+    }
+
+    /**
+     * @return a copy of the bucket regions currently cached, keyed by bucket name
+     */
+    Map<String, Regions> export() {
+        return new HashMap<>(cache.asMap());
+    }
+
+    /**
+     * This method adds bucket regions to the cache, e.g. from a snapshot of a previous run.
+     * @param bucketRegions regions keyed by bucket name
+     */
+    void seed(Map<String, Regions> bucketRegions) {
+        cache.putAll(bucketRegions);
+    }
+
+    /**
+     * This method removes the region cached for the bucket, so that it is looked up again on the next request. Pinned
+     * buckets are not affected.
+     * @param bucket name of the bucket
+     */
+    void invalidate(String bucket) {
+        cache.invalidate(bucket);
+        failureCache.invalidate(bucket);
     }
 
     private Regions resolveFromService(AmazonS3 s3Client, String bucket) {
         String resolvedRegion;
         try {
-            logger.info("Making a call to S3 for determining the bucket region.");
+            logger.debug("Making a call to S3 for determining the bucket region.");
             HeadBucketRequest bucketLocationRequest = new HeadBucketRequest(bucket);
-            HeadBucketResult headBucketResponse = s3Client.headBucket(bucketLocationRequest);
+            HeadBucketResult headBucketResponse = S3AccessGrantsMetrics.timeRemoteCall(metricsPublisher, RemoteCall.HEAD_BUCKET,
+                    () -> s3Client.headBucket(bucketLocationRequest));
             resolvedRegion = headBucketResponse.getBucketRegion();
         } catch (AmazonS3Exception e) {
             logger.debug("An exception occurred while make head bucket request to fetch bucket region. Attempting to extract the region from headers.");
@@ -103,7 +296,10 @@ public class S3AccessGrantsCachedBucketRegionResolver {
                 // A fallback in case the head bucket requests fails.
                 resolvedRegion = e.getAdditionalDetails().get("x-amz-bucket-region");
             } else {
-                throw new AmazonServiceException(e.getMessage());
+                AmazonServiceException exception = new AmazonServiceException(e.getMessage());
+                exception.setStatusCode(e.getStatusCode());
+                exception.setErrorCode(e.getErrorCode());
+                throw exception;
             }
         }
         if(resolvedRegion == null) throw new AmazonServiceException("S3 error. region cannot be determined for the specified bucket.");
@@ -114,11 +310,21 @@ public class S3AccessGrantsCachedBucketRegionResolver {
         S3AccessGrantsCachedBucketRegionResolver build();
         S3AccessGrantsCachedBucketRegionResolver.Builder maxCacheSize(int maxCacheSize);
         S3AccessGrantsCachedBucketRegionResolver.Builder expireCacheAfterWriteSeconds(int expireCacheAfterWriteSeconds);
+        S3AccessGrantsCachedBucketRegionResolver.Builder expireFailureCacheAfterWriteSeconds(int expireFailureCacheAfterWriteSeconds);
+        S3AccessGrantsCachedBucketRegionResolver.Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher);
+        S3AccessGrantsCachedBucketRegionResolver.Builder executor(Executor executor);
+        S3AccessGrantsCachedBucketRegionResolver.Builder resolveAllParallelism(int resolveAllParallelism);
+        S3AccessGrantsCachedBucketRegionResolver.Builder pinnedRegions(Map<String, Regions> pinnedRegions);
     }
 
     static final class BuilderImpl implements S3AccessGrantsCachedBucketRegionResolver.Builder {
         private int maxCacheSize = BUCKET_REGION_CACHE_SIZE;
         private int expireCacheAfterWriteSeconds = BUCKET_REGION_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+        private int expireFailureCacheAfterWriteSeconds = DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+        private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+        private Executor executor = S3AccessGrantsExecutors.defaultExecutor();
+        private int resolveAllParallelism = DEFAULT_BUCKET_REGION_RESOLVE_ALL_PARALLELISM;
+        private Map<String, Regions> pinnedRegions = Collections.emptyMap();
 
         private BuilderImpl() {
         }
@@ -126,6 +332,11 @@ public class S3AccessGrantsCachedBucketRegionResolver {
         public BuilderImpl(S3AccessGrantsCachedBucketRegionResolver s3AccessGrantsCachedBucketRegionResolver) {
             maxCacheSize(s3AccessGrantsCachedBucketRegionResolver.maxCacheSize);
             expireCacheAfterWriteSeconds(s3AccessGrantsCachedBucketRegionResolver.expireCacheAfterWriteSeconds);
+            expireFailureCacheAfterWriteSeconds(s3AccessGrantsCachedBucketRegionResolver.expireFailureCacheAfterWriteSeconds);
+            metricsPublisher(s3AccessGrantsCachedBucketRegionResolver.metricsPublisher);
+            executor(s3AccessGrantsCachedBucketRegionResolver.executor);
+            resolveAllParallelism(s3AccessGrantsCachedBucketRegionResolver.resolveAllParallelism);
+            pinnedRegions(s3AccessGrantsCachedBucketRegionResolver.pinnedRegions);
         }
 
         public int maxCacheSize() {
@@ -156,14 +367,91 @@ public class S3AccessGrantsCachedBucketRegionResolver {
             return this;
         }
 
+        @Override
+        public S3AccessGrantsCachedBucketRegionResolver.Builder expireFailureCacheAfterWriteSeconds(int expireFailureCacheAfterWriteSeconds) {
+            if (expireFailureCacheAfterWriteSeconds <= 0 || expireFailureCacheAfterWriteSeconds > MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS) {
+                throw new IllegalArgumentException(String.format("expireFailureCacheAfterWriteSeconds needs to be in range (0, %d]",
+                        MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS));
+            }
+            this.expireFailureCacheAfterWriteSeconds = expireFailureCacheAfterWriteSeconds;
+            return this;
+        }
+
+        @Override
+        public S3AccessGrantsCachedBucketRegionResolver.Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher) {
+            if (metricsPublisher == null) {
+                throw new IllegalArgumentException("metricsPublisher is required");
+            }
+            this.metricsPublisher = metricsPublisher;
+            return this;
+        }
+
+        /**
+         * Executor on which resolveAll makes the headBucket() calls. Defaults to a shared bounded pool of daemon threads, or
+         * to virtual threads on Java 21 and later.
+         */
+        @Override
+        public S3AccessGrantsCachedBucketRegionResolver.Builder executor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor is required");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maximum number of headBucket() calls resolveAll makes at the same time.
+         */
+        @Override
+        public S3AccessGrantsCachedBucketRegionResolver.Builder resolveAllParallelism(int resolveAllParallelism) {
+            if (resolveAllParallelism <= 0) {
+                throw new IllegalArgumentException("resolveAllParallelism needs to be positive");
+            }
+            this.resolveAllParallelism = resolveAllParallelism;
+            return this;
+        }
+
+        /**
+         * Regions of buckets known ahead of time, keyed by bucket name. They never expire, are not counted against
+         * maxCacheSize and are not replaced by learned regions.
+         */
+        @Override
+        public S3AccessGrantsCachedBucketRegionResolver.Builder pinnedRegions(Map<String, Regions> pinnedRegions) {
+            if (pinnedRegions == null) {
+                throw new IllegalArgumentException("pinnedRegions is required");
+            }
+            this.pinnedRegions = Collections.unmodifiableMap(new HashMap<>(pinnedRegions));
+            return this;
+        }
+
         @Override
         public S3AccessGrantsCachedBucketRegionResolver build() {
             S3AccessGrantsCachedBucketRegionResolver resolver = new S3AccessGrantsCachedBucketRegionResolver();
+            S3AccessGrantsMetricsPublisher metricsPublisher = this.metricsPublisher;
             resolver.maxCacheSize = maxCacheSize();
             resolver.expireCacheAfterWriteSeconds = expireCacheAfterWriteSeconds();
+            resolver.expireFailureCacheAfterWriteSeconds = expireFailureCacheAfterWriteSeconds;
+            resolver.metricsPublisher = metricsPublisher;
+            resolver.executor = executor;
+            resolver.resolveAllParallelism = resolveAllParallelism;
+            resolver.pinnedRegions = pinnedRegions;
             resolver.cache = Caffeine.newBuilder()
                     .maximumSize(maxCacheSize)
                     .expireAfterWrite(Duration.ofSeconds(expireCacheAfterWriteSeconds))
+                    .removalListener((String key, Regions value, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            metricsPublisher.cacheEviction(CacheName.BUCKET_REGION);
+                        }
+                    })
+                    .build();
+            resolver.failureCache = Caffeine.newBuilder()
+                    .maximumSize(maxCacheSize)
+                    .expireAfterWrite(Duration.ofSeconds(expireFailureCacheAfterWriteSeconds))
+                    .removalListener((String key, AmazonServiceException value, RemovalCause cause) -> {
+                        if (cause.wasEvicted()) {
+                            metricsPublisher.cacheEviction(CacheName.BUCKET_REGION_FAILURE);
+                        }
+                    })
                     .build();
             return resolver;
         }
@@ -17,11 +17,15 @@ package com.amazonaws.s3accessgrants.cache;
 
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.AWSS3ControlException;
 import com.amazonaws.services.s3control.model.Permission;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 public interface S3AccessGrantsCachedCredentialsProvider {
     /**
      * @param credentials Credentials used for calling Access Grants.
@@ -33,6 +37,21 @@ public interface S3AccessGrantsCachedCredentialsProvider {
     AWSCredentials getDataAccess (AWSS3Control s3ControlClient, AWSCredentials credentials, Permission permission, String s3Prefix,
                                   String accountId) throws AWSS3ControlException;
 
+    /**
+     * Asynchronous variant of getDataAccess. Cached credentials are returned in a completed future, credentials which are
+     * not cached are fetched on the executor the provider is configured with. The default implementation calls
+     * getDataAccess on the shared pool of the S3 Access Grants threads.
+     * @param credentials Credentials used for calling Access Grants.
+     * @param permission Permission requested by the user. Can be Read, Write, or ReadWrite.
+     * @param s3Prefix S3Prefix requested by the user. e.g., s3://bucket-name/path/to/helloworld.txt
+     * @return Future completed with the credentials from Access Grants, or with the AWSS3ControlException received.
+     */
+    default CompletableFuture<AWSCredentials> getDataAccessAsync (AWSS3Control s3ControlClient, AWSCredentials credentials, Permission permission,
+                                                                  String s3Prefix, String accountId) {
+        return CompletableFuture.supplyAsync(() -> getDataAccess(s3ControlClient, credentials, permission, s3Prefix, accountId),
+                S3AccessGrantsExecutors.defaultExecutor());
+    }
+
     /**
      * *
      * @param s3Client used to make headBucket() call
@@ -40,4 +59,15 @@ public interface S3AccessGrantsCachedCredentialsProvider {
      * @return Region the bucket is in
      */
     Regions getBucketRegion (AmazonS3 s3Client, String bucketName) ;
+
+    /**
+     * *
+     * @param s3ClientSupplier supplies the client used to make headBucket() call, only invoked when the region is not cached.
+     *                         The default implementation always invokes it and delegates to getBucketRegion(AmazonS3, String).
+     * @param bucketName name of the bucket to get the region for
+     * @return Region the bucket is in
+     */
+    default Regions getBucketRegion (Supplier<AmazonS3> s3ClientSupplier, String bucketName) {
+        return getBucketRegion(s3ClientSupplier.get(), bucketName);
+    }
 }
@@ -17,6 +17,8 @@ package com.amazonaws.s3accessgrants.cache;
 
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsRateGovernor;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.AWSS3ControlException;
@@ -24,43 +26,111 @@ import com.amazonaws.services.s3control.model.Permission;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import javax.validation.constraints.NotNull;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.CACHE_EXPIRATION_TIME_PERCENTAGE;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.MAX_LIMIT_ACCESS_GRANTS_MAX_CACHE_SIZE;
 import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_DURATION;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_PREWARM_PARALLELISM;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_STALE_SAFETY_MARGIN_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_THROTTLING_DEADLINE_MILLIS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheUtils.getBucketName;
 
-public class S3AccessGrantsCachedCredentialsProviderImpl implements S3AccessGrantsCachedCredentialsProvider{
+public class S3AccessGrantsCachedCredentialsProviderImpl implements S3AccessGrantsCachedCredentialsProvider, AutoCloseable {
 
     private final S3AccessGrantsCache accessGrantsCache;
     private final S3AccessGrantsAccessDeniedCache s3AccessGrantsAccessDeniedCache;
     private final S3AccessGrantsCachedBucketRegionResolver s3AccessGrantsCachedBucketRegionResolver;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int prewarmParallelism;
     private static final Log logger = LogFactory.getLog(S3AccessGrantsCachedCredentialsProviderImpl.class);
 
-    private S3AccessGrantsCachedCredentialsProviderImpl(int maxCacheSize, int cacheExpirationTimePercentage, int duration) {
+    private S3AccessGrantsCachedCredentialsProviderImpl(int maxCacheSize, int cacheExpirationTimePercentage, int duration, boolean enableRefreshAhead,
+                                                        Executor executor, S3AccessGrantsMetricsPublisher metricsPublisher,
+                                                        S3AccessGrantsStageTimings stageTimings, int prewarmParallelism,
+                                                        S3AccessGrantsRateGovernor rateGovernor,
+                                                        boolean enableStaleWhileRevalidate, int staleSafetyMarginSeconds,
+                                                        int accessDeniedCacheExpireAfterWriteSeconds, int negativeCacheExpireAfterWriteSeconds,
+                                                        S3AccessGrantsPinnedBuckets pinnedBuckets) {
 
+        this.ownedExecutor = executor == null ? S3AccessGrantsExecutors.newExecutor("s3-access-grants") : null;
+        this.executor = executor == null ? ownedExecutor : executor;
         accessGrantsCache = S3AccessGrantsCache.builder()
                 .maxCacheSize(maxCacheSize)
                 .duration(duration)
+                .enableRefreshAhead(enableRefreshAhead)
+                .metricsPublisher(metricsPublisher)
+                .stageTimings(stageTimings)
+                .rateGovernor(rateGovernor)
+                .enableStaleWhileRevalidate(enableStaleWhileRevalidate)
+                .staleSafetyMarginSeconds(staleSafetyMarginSeconds)
+                .negativeCacheExpireAfterWriteSeconds(negativeCacheExpireAfterWriteSeconds)
+                .pinnedAccountIds(pinnedBuckets.getBucketAccountIds())
+                .executor(this.executor)
                 .cacheExpirationTimePercentage(cacheExpirationTimePercentage).build();
 
         s3AccessGrantsAccessDeniedCache = S3AccessGrantsAccessDeniedCache.builder()
-                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).build();
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE)
+                .expireCacheAfterWriteSeconds(accessDeniedCacheExpireAfterWriteSeconds)
+                .metricsPublisher(metricsPublisher).build();
 
-        s3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder().build();
+        s3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder()
+                .expireFailureCacheAfterWriteSeconds(negativeCacheExpireAfterWriteSeconds)
+                .pinnedRegions(pinnedBuckets.getBucketRegions())
+                .executor(this.executor)
+                .metricsPublisher(metricsPublisher).build();
+        this.prewarmParallelism = prewarmParallelism;
     }
 
-    S3AccessGrantsCachedCredentialsProviderImpl(S3AccessGrantsCachedAccountIdResolver resolver,int maxCacheSize, int cacheExpirationTimePercentage, int duration) {
+    S3AccessGrantsCachedCredentialsProviderImpl(S3AccessGrantsCachedAccountIdResolver resolver,int maxCacheSize, int cacheExpirationTimePercentage, int duration,
+                                                boolean enableRefreshAhead, Executor executor, S3AccessGrantsMetricsPublisher metricsPublisher,
+                                                S3AccessGrantsStageTimings stageTimings, int prewarmParallelism,
+                                                S3AccessGrantsRateGovernor rateGovernor, boolean enableStaleWhileRevalidate,
+                                                int staleSafetyMarginSeconds, int accessDeniedCacheExpireAfterWriteSeconds,
+                                                int negativeCacheExpireAfterWriteSeconds, S3AccessGrantsPinnedBuckets pinnedBuckets) {
 
+        this.ownedExecutor = executor == null ? S3AccessGrantsExecutors.newExecutor("s3-access-grants") : null;
+        this.executor = executor == null ? ownedExecutor : executor;
         accessGrantsCache = S3AccessGrantsCache.builder()
                 .maxCacheSize(maxCacheSize)
                 .cacheExpirationTimePercentage(cacheExpirationTimePercentage)
                 .s3AccessGrantsCachedAccountIdResolver(resolver)
                 .duration(duration)
+                .enableRefreshAhead(enableRefreshAhead)
+                .metricsPublisher(metricsPublisher)
+                .stageTimings(stageTimings)
+                .rateGovernor(rateGovernor)
+                .enableStaleWhileRevalidate(enableStaleWhileRevalidate)
+                .staleSafetyMarginSeconds(staleSafetyMarginSeconds)
+                .executor(this.executor)
                 .buildWithAccountIdResolver();
         s3AccessGrantsAccessDeniedCache = S3AccessGrantsAccessDeniedCache.builder()
-                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).build();
-        s3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder().build();
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE)
+                .expireCacheAfterWriteSeconds(accessDeniedCacheExpireAfterWriteSeconds)
+                .metricsPublisher(metricsPublisher).build();
+        s3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder()
+                .expireFailureCacheAfterWriteSeconds(negativeCacheExpireAfterWriteSeconds)
+                .pinnedRegions(pinnedBuckets.getBucketRegions())
+                .executor(this.executor)
+                .metricsPublisher(metricsPublisher).build();
+        this.prewarmParallelism = prewarmParallelism;
     }
 
     public static S3AccessGrantsCachedCredentialsProviderImpl.Builder builder() {
@@ -74,6 +144,18 @@ public class S3AccessGrantsCachedCredentialsProviderImpl implements S3AccessGran
         S3AccessGrantsCachedCredentialsProviderImpl.Builder maxCacheSize(int maxCacheSize);
         S3AccessGrantsCachedCredentialsProviderImpl.Builder cacheExpirationTimePercentage(int cacheExpirationTimePercentage);
         S3AccessGrantsCachedCredentialsProviderImpl.Builder duration(int duration);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder enableRefreshAhead(boolean enableRefreshAhead);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder executor(Executor executor);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder stageTimings(S3AccessGrantsStageTimings stageTimings);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder prewarmParallelism(int prewarmParallelism);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder enableAdaptiveThrottling(boolean enableAdaptiveThrottling);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder throttlingDeadlineMillis(int throttlingDeadlineMillis);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder enableStaleWhileRevalidate(boolean enableStaleWhileRevalidate);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder staleSafetyMarginSeconds(int staleSafetyMarginSeconds);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder accessDeniedCacheExpireAfterWriteSeconds(int accessDeniedCacheExpireAfterWriteSeconds);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder negativeCacheExpireAfterWriteSeconds(int negativeCacheExpireAfterWriteSeconds);
+        S3AccessGrantsCachedCredentialsProviderImpl.Builder pinnedBuckets(S3AccessGrantsPinnedBuckets pinnedBuckets);
     }
 
     static final class BuilderImpl implements S3AccessGrantsCachedCredentialsProviderImpl.Builder {
@@ -81,18 +163,35 @@ public class S3AccessGrantsCachedCredentialsProviderImpl implements S3AccessGran
         private int maxCacheSize = DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE;
         private int cacheExpirationTimePercentage = CACHE_EXPIRATION_TIME_PERCENTAGE;
         private int duration = DEFAULT_DURATION;
+        private boolean enableRefreshAhead;
+        private Executor executor;
+        private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+        private S3AccessGrantsStageTimings stageTimings = S3AccessGrantsStageTimings.DISABLED;
+        private int prewarmParallelism = DEFAULT_PREWARM_PARALLELISM;
+        private boolean enableAdaptiveThrottling;
+        private int throttlingDeadlineMillis = DEFAULT_THROTTLING_DEADLINE_MILLIS;
+        private boolean enableStaleWhileRevalidate;
+        private int staleSafetyMarginSeconds = DEFAULT_STALE_SAFETY_MARGIN_SECONDS;
+        private int accessDeniedCacheExpireAfterWriteSeconds = ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS;
+        private int negativeCacheExpireAfterWriteSeconds = DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS;
+        private S3AccessGrantsPinnedBuckets pinnedBuckets = S3AccessGrantsPinnedBuckets.NONE;
 
         private BuilderImpl() {
         }
 
         @Override
         public S3AccessGrantsCachedCredentialsProviderImpl build() {
-            return new S3AccessGrantsCachedCredentialsProviderImpl(maxCacheSize, cacheExpirationTimePercentage, duration);
+            return new S3AccessGrantsCachedCredentialsProviderImpl(maxCacheSize, cacheExpirationTimePercentage, duration, enableRefreshAhead, executor, metricsPublisher, stageTimings, prewarmParallelism, rateGovernor(),
+                    enableStaleWhileRevalidate, staleSafetyMarginSeconds, accessDeniedCacheExpireAfterWriteSeconds,
+                    negativeCacheExpireAfterWriteSeconds, pinnedBuckets);
         }
 
         @Override
         public S3AccessGrantsCachedCredentialsProviderImpl buildWithAccountIdResolver() {
-            return new S3AccessGrantsCachedCredentialsProviderImpl(s3AccessGrantsCachedAccountIdResolver, maxCacheSize, cacheExpirationTimePercentage, duration);
+            return new S3AccessGrantsCachedCredentialsProviderImpl(s3AccessGrantsCachedAccountIdResolver, maxCacheSize, cacheExpirationTimePercentage, duration,
+                    enableRefreshAhead, executor, metricsPublisher, stageTimings, prewarmParallelism, rateGovernor(),
+                    enableStaleWhileRevalidate, staleSafetyMarginSeconds, accessDeniedCacheExpireAfterWriteSeconds,
+                    negativeCacheExpireAfterWriteSeconds, pinnedBuckets);
         }
 
         @Override
@@ -126,6 +225,157 @@ public class S3AccessGrantsCachedCredentialsProviderImpl implements S3AccessGran
             return this;
         }
 
+        /**
+         * When enabled, credentials which are read while cached are re-fetched in the background before they expire, so
+         * that requests for actively used grants do not wait for Access Grants.
+         */
+        @Override
+        public Builder enableRefreshAhead(boolean enableRefreshAhead) {
+            this.enableRefreshAhead = enableRefreshAhead;
+            return this;
+        }
+
+        /**
+         * Executor on which getDataAccessAsync resolves the account and calls Access Grants when the credentials are not
+         * cached, and on which stale credentials and bucket regions are fetched in the background. Defaults to a bounded
+         * pool of daemon threads, or to virtual threads on Java 21 and later, which the provider creates and shuts down
+         * when it is closed. An executor given here is not shut down by the provider.
+         */
+        @Override
+        public Builder executor(Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor is required");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Publisher receiving the metrics of the caches and of the calls to Access Grants and S3. The account id resolver
+         * passed to buildWithAccountIdResolver keeps the publisher it was built with.
+         */
+        @Override
+        public Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher) {
+            if (metricsPublisher == null) {
+                throw new IllegalArgumentException("metricsPublisher is required");
+            }
+            this.metricsPublisher = metricsPublisher;
+            return this;
+        }
+
+        /**
+         * Timings the cache records the credentials cache search, account id resolution and GetDataAccess stages in.
+         */
+        @Override
+        public Builder stageTimings(S3AccessGrantsStageTimings stageTimings) {
+            if (stageTimings == null) {
+                throw new IllegalArgumentException("stageTimings is required");
+            }
+            this.stageTimings = stageTimings;
+            return this;
+        }
+
+        /**
+         * Maximum number of prefixes prewarm fetches credentials for at the same time.
+         */
+        @Override
+        public Builder prewarmParallelism(int prewarmParallelism) {
+            if (prewarmParallelism <= 0) {
+                throw new IllegalArgumentException("prewarmParallelism needs to be positive");
+            }
+            this.prewarmParallelism = prewarmParallelism;
+            return this;
+        }
+
+        /**
+         * When enabled, the rate of GetDataAccess and GetAccessGrantsInstanceForPrefix calls is halved when Access Grants
+         * throttles calls, at most once a second, and grows back while calls succeed. Calls over the rate wait for their turn instead of
+         * adding to the throttling. The account id resolver passed to buildWithAccountIdResolver keeps its own rate governor.
+         */
+        @Override
+        public Builder enableAdaptiveThrottling(boolean enableAdaptiveThrottling) {
+            this.enableAdaptiveThrottling = enableAdaptiveThrottling;
+            return this;
+        }
+
+        /**
+         * How long a call waits for its turn at most when adaptive throttling is enabled, before it is made anyway.
+         */
+        @Override
+        public Builder throttlingDeadlineMillis(int throttlingDeadlineMillis) {
+            if (throttlingDeadlineMillis < 0) {
+                throw new IllegalArgumentException("throttlingDeadlineMillis cannot be negative");
+            }
+            this.throttlingDeadlineMillis = throttlingDeadlineMillis;
+            return this;
+        }
+
+        /**
+         * When enabled, cached credentials past cacheExpirationTimePercentage of their lifetime are still served while they
+         * are re-fetched in the background, until staleSafetyMarginSeconds before they expire. Requests for frequently used
+         * grants then do not wait for Access Grants when their credentials are renewed.
+         */
+        @Override
+        public Builder enableStaleWhileRevalidate(boolean enableStaleWhileRevalidate) {
+            this.enableStaleWhileRevalidate = enableStaleWhileRevalidate;
+            return this;
+        }
+
+        /**
+         * How long before their expiration credentials served while stale are evicted from the cache.
+         */
+        @Override
+        public Builder staleSafetyMarginSeconds(int staleSafetyMarginSeconds) {
+            if (staleSafetyMarginSeconds < 0) {
+                throw new IllegalArgumentException("staleSafetyMarginSeconds cannot be negative");
+            }
+            this.staleSafetyMarginSeconds = staleSafetyMarginSeconds;
+            return this;
+        }
+
+        /**
+         * How long requests denied by Access Grants are denied again without calling Access Grants.
+         */
+        @Override
+        public Builder accessDeniedCacheExpireAfterWriteSeconds(int accessDeniedCacheExpireAfterWriteSeconds) {
+            if (accessDeniedCacheExpireAfterWriteSeconds <= 0) {
+                throw new IllegalArgumentException("accessDeniedCacheExpireAfterWriteSeconds needs to be positive");
+            }
+            this.accessDeniedCacheExpireAfterWriteSeconds = accessDeniedCacheExpireAfterWriteSeconds;
+            return this;
+        }
+
+        /**
+         * How long a client error other than throttling, received while resolving the account id or the region of a
+         * bucket, is rethrown without calling the service again. The account id resolver passed to
+         * buildWithAccountIdResolver keeps its own setting.
+         */
+        @Override
+        public Builder negativeCacheExpireAfterWriteSeconds(int negativeCacheExpireAfterWriteSeconds) {
+            if (negativeCacheExpireAfterWriteSeconds <= 0) {
+                throw new IllegalArgumentException("negativeCacheExpireAfterWriteSeconds needs to be positive");
+            }
+            this.negativeCacheExpireAfterWriteSeconds = negativeCacheExpireAfterWriteSeconds;
+            return this;
+        }
+
+        /**
+         * Account ids and regions of buckets known ahead of time, which are never looked up nor expire. The account id
+         * resolver passed to buildWithAccountIdResolver keeps its own pinned account ids.
+         */
+        @Override
+        public Builder pinnedBuckets(S3AccessGrantsPinnedBuckets pinnedBuckets) {
+            if (pinnedBuckets == null) {
+                throw new IllegalArgumentException("pinnedBuckets is required");
+            }
+            this.pinnedBuckets = pinnedBuckets;
+            return this;
+        }
+
+        private S3AccessGrantsRateGovernor rateGovernor() {
+            return enableAdaptiveThrottling ? S3AccessGrantsRateGovernor.adaptive(throttlingDeadlineMillis) : S3AccessGrantsRateGovernor.disabled();
+        }
+
     }
 
     @Override
@@ -152,13 +402,246 @@ public class S3AccessGrantsCachedCredentialsProviderImpl implements S3AccessGran
         return accessGrantsCredentials;
     }
 
+    @Override
+    public CompletableFuture<AWSCredentials> getDataAccessAsync (AWSS3Control s3ControlClient, AWSCredentials credentials, Permission permission,
+                                                                 String s3Prefix, @NotNull String accountId) {
+
+        CacheKey cacheKey = CacheKey.builder()
+                .credentials(credentials)
+                .permission(permission)
+                .s3Prefix(s3Prefix).build();
+
+        AWSS3ControlException s3ControlException = s3AccessGrantsAccessDeniedCache.getValueFromCache(cacheKey);
+        if (s3ControlException != null) {
+            logger.debug("Found a matching request in the cache which was denied.");
+            logger.error("Exception occurred while fetching the credentials: " + s3ControlException);
+            CompletableFuture<AWSCredentials> deniedRequest = new CompletableFuture<>();
+            deniedRequest.completeExceptionally(s3ControlException);
+            return deniedRequest;
+        }
+        return accessGrantsCache.getCredentialsAsync(s3ControlClient, cacheKey, accountId, s3AccessGrantsAccessDeniedCache, executor);
+    }
+
     @Override
     public Regions getBucketRegion (AmazonS3 s3Client, String bucket) {
         return s3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, bucket);
     }
 
+    @Override
+    public Regions getBucketRegion (Supplier<AmazonS3> s3ClientSupplier, String bucket) {
+        return s3AccessGrantsCachedBucketRegionResolver.resolve(s3ClientSupplier, bucket);
+    }
+
+    /**
+     * This method resolves the regions of several buckets in parallel, e.g. to warm the bucket region cache at the start
+     * of a job accessing many buckets. Buckets whose region cannot be resolved are left out of the result.
+     * @param s3ClientSupplier supplies the S3 client used to make the headBucket() calls
+     * @param buckets names of the buckets
+     * @return regions keyed by bucket name
+     */
+    public Map<String, Regions> getBucketRegions(Supplier<AmazonS3> s3ClientSupplier, Collection<String> buckets) {
+        return s3AccessGrantsCachedBucketRegionResolver.resolveAll(s3ClientSupplier, buckets);
+    }
+
+    /**
+     * This method caches a region observed for a bucket in a response from S3, sparing the headBucket() call which would
+     * otherwise be made to look it up.
+     * @param bucket name of the bucket
+     * @param region name of the region the bucket is in, e.g. us-east-1
+     */
+    public void learnBucketRegion(String bucket, String region) {
+        s3AccessGrantsCachedBucketRegionResolver.learn(bucket, region);
+    }
+
+    /**
+     * This method forgets the account id and the region cached for a bucket, e.g. after S3 reported that the bucket does
+     * not exist, so that a bucket created again in another account or region is looked up again instead of being served
+     * stale entries until they expire.
+     * @param bucket name of the bucket
+     */
+    public void invalidateBucket(String bucket) {
+        accessGrantsCache.getAccountIdResolver().invalidate(bucket);
+        s3AccessGrantsCachedBucketRegionResolver.invalidate(bucket);
+    }
+
+    /**
+     * This method fetches the credentials for the given prefixes ahead of the requests needing them, populating the same
+     * caches getDataAccess reads. Credentials are fetched on the executor the provider is configured with, for at most
+     * prewarmParallelism prefixes at a time, without any other thread waiting for them. Duplicates are dropped, and the
+     * first prefix of every bucket is fetched before the others, so that prefixes covered by the grant it matched are
+     * served from the cache instead of fetched again. Prefixes whose credentials cannot be fetched, e.g. once the provider
+     * is closed, are skipped; requests denied by Access Grants are cached as such.
+     * @param s3ControlClientForBucket returns the S3 Control client to call Access Grants with for a bucket. It is called on
+     *                                 the executor, so it may block, e.g. to look up the region of the bucket.
+     * @param credentials Credentials used for calling Access Grants.
+     * @param prefixPermissions prefixes and permissions to fetch credentials for.
+     * @param accountId Account Id of the requester.
+     * @return Future completed with the number of prefixes credentials are cached for once all of them have been processed.
+     */
+    public CompletableFuture<Integer> prewarm(Function<String, AWSS3Control> s3ControlClientForBucket, AWSCredentials credentials,
+                                              Collection<PrefixPermission> prefixPermissions, String accountId) {
+        if (s3ControlClientForBucket == null) {
+            throw new IllegalArgumentException("s3ControlClientForBucket is required");
+        }
+        if (prefixPermissions == null) {
+            throw new IllegalArgumentException("prefixPermissions is required");
+        }
+        Map<String, List<PrefixPermission>> prefixPermissionsByBucket = new LinkedHashMap<>();
+        for (PrefixPermission prefixPermission : new TreeSet<>(prefixPermissions)) {
+            prefixPermissionsByBucket.computeIfAbsent(getBucketName(prefixPermission.getS3Prefix()), bucket -> new ArrayList<>())
+                    .add(prefixPermission);
+        }
+        return new Prewarm(prefixPermissionsByBucket, s3ControlClientForBucket, credentials, accountId).start();
+    }
+
+    /**
+     * A prewarm in progress. Prefixes are fetched on the executor of the provider, without a thread waiting for them:
+     * every fetch that completes starts the next ones, and the first prefix of a bucket queues the other prefixes of the
+     * bucket once it completes.
+     */
+    private final class Prewarm {
+        private final Function<String, AWSS3Control> s3ControlClientForBucket;
+        private final AWSCredentials credentials;
+        private final String accountId;
+        private final Map<String, List<PrefixPermission>> prefixPermissionsByBucket;
+        private final Queue<Map.Entry<String, PrefixPermission>> queued = new ArrayDeque<>();
+        private final CompletableFuture<Integer> warmed = new CompletableFuture<>();
+        private int running;
+        private int warmedCount;
+
+        private Prewarm(Map<String, List<PrefixPermission>> prefixPermissionsByBucket, Function<String, AWSS3Control> s3ControlClientForBucket,
+                        AWSCredentials credentials, String accountId) {
+            this.prefixPermissionsByBucket = prefixPermissionsByBucket;
+            this.s3ControlClientForBucket = s3ControlClientForBucket;
+            this.credentials = credentials;
+            this.accountId = accountId;
+            for (Map.Entry<String, List<PrefixPermission>> bucketPrefixPermissions : prefixPermissionsByBucket.entrySet()) {
+                queued.add(new AbstractMap.SimpleImmutableEntry<>(bucketPrefixPermissions.getKey(), bucketPrefixPermissions.getValue().get(0)));
+            }
+        }
+
+        private CompletableFuture<Integer> start() {
+            startQueued();
+            return warmed;
+        }
+
+        private void startQueued() {
+            List<Map.Entry<String, PrefixPermission>> started = new ArrayList<>();
+            int warmedTotal;
+            synchronized (this) {
+                while (running < prewarmParallelism && !queued.isEmpty()) {
+                    started.add(queued.poll());
+                    running++;
+                }
+                warmedTotal = running == 0 ? warmedCount : -1;
+            }
+            if (warmedTotal >= 0 && warmed.complete(warmedTotal)) {
+                logger.debug("Pre-warmed the credentials of " + warmedTotal + " prefixes.");
+            }
+            for (Map.Entry<String, PrefixPermission> bucketPrefixPermission : started) {
+                fetch(bucketPrefixPermission.getKey(), bucketPrefixPermission.getValue());
+            }
+        }
+
+        private void fetch(String bucket, PrefixPermission prefixPermission) {
+            CompletableFuture<AWSCredentials> prewarmed;
+            try {
+                prewarmed = CompletableFuture.supplyAsync(() -> s3ControlClientForBucket.apply(bucket), executor)
+                        .thenCompose(s3ControlClient -> getDataAccessAsync(s3ControlClient, credentials, prefixPermission.getPermission(),
+                                prefixPermission.getS3Prefix(), accountId));
+            } catch (RuntimeException e) {
+                prewarmed = new CompletableFuture<>();
+                prewarmed.completeExceptionally(e);
+            }
+            prewarmed.whenComplete((result, e) -> onFetched(bucket, prefixPermission, e));
+        }
+
+        private void onFetched(String bucket, PrefixPermission prefixPermission, Throwable e) {
+            if (e != null) {
+                logger.debug("Unable to pre-warm the credentials of " + prefixPermission + ": " + e);
+            }
+            synchronized (this) {
+                running--;
+                if (e == null) {
+                    warmedCount++;
+                }
+                List<PrefixPermission> bucketPrefixPermissions = prefixPermissionsByBucket.get(bucket);
+                if (bucketPrefixPermissions.get(0) == prefixPermission) {
+                    // the grant matched by the first prefix of the bucket is cached, the prefixes it covers are cache hits
+                    for (PrefixPermission coveredPrefixPermission : bucketPrefixPermissions.subList(1, bucketPrefixPermissions.size())) {
+                        queued.add(new AbstractMap.SimpleImmutableEntry<>(bucket, coveredPrefixPermission));
+                    }
+                }
+            }
+            startQueued();
+        }
+    }
+
+    /**
+     * This method takes a snapshot of the state of the caches which is not secret: the account ids and regions resolved
+     * for buckets and the hottest grants credentials are cached for. Credentials themselves are never part of a snapshot.
+     * @param maxGrants maximum number of grants to include in the snapshot.
+     * @return the snapshot.
+     */
+    public S3AccessGrantsCacheSnapshot snapshot(int maxGrants) {
+        if (maxGrants < 0) {
+            throw new IllegalArgumentException("maxGrants cannot be negative");
+        }
+        return new S3AccessGrantsCacheSnapshot(accessGrantsCache.getAccountIdResolver().export(),
+                s3AccessGrantsCachedBucketRegionResolver.export(), accessGrantsCache.exportGrants(maxGrants));
+    }
+
+    /**
+     * This method seeds the account id and bucket region caches from a snapshot. The credentials of the grants in the
+     * snapshot are not restored, they are returned so that the caller can fetch them again with getDataAccessAsync using
+     * the credentials and S3 Control client matching each grant.
+     * @param snapshot snapshot taken by a previous run.
+     * @return the grants of the snapshot, hottest first.
+     */
+    public List<S3AccessGrantsCacheSnapshot.Grant> restore(S3AccessGrantsCacheSnapshot snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot is required");
+        }
+        accessGrantsCache.getAccountIdResolver().seed(snapshot.getBucketAccountIds());
+        s3AccessGrantsCachedBucketRegionResolver.seed(snapshot.getBucketRegions());
+        return snapshot.getGrants();
+    }
+
+    /**
+     * This method removes the grant Access Grants credentials were served from for a request, e.g. after S3 rejected them
+     * with 403 Forbidden because the grant was revoked or narrowed. The next request then gets its credentials from
+     * Access Grants again instead of being served the rejected ones until they expire, while the credentials of other
+     * grants stay cached.
+     * @param credentials Credentials used for calling Access Grants.
+     * @param permission Permission of the request.
+     * @param s3Prefix S3 prefix of the request.
+     * @param accessGrantsCredentials Access Grants credentials which were rejected.
+     * @return true if the credentials were cached and have been removed.
+     */
+    public boolean invalidateDataAccess(AWSCredentials credentials, Permission permission, String s3Prefix, AWSCredentials accessGrantsCredentials) {
+        if (credentials == null || permission == null || s3Prefix == null || accessGrantsCredentials == null) {
+            throw new IllegalArgumentException("credentials, permission, s3Prefix and accessGrantsCredentials are required");
+        }
+        CacheKey cacheKey = CacheKey.builder()
+                .credentials(credentials)
+                .permission(permission)
+                .s3Prefix(s3Prefix).build();
+        return accessGrantsCache.invalidate(cacheKey, accessGrantsCredentials);
+    }
+
     public void invalidateCache() {
         accessGrantsCache.invalidateCache();
     }
 
+    /**
+     * Stops the background refresh of cached credentials, and the executor the provider created when none was configured.
+     */
+    @Override
+    public void close() {
+        accessGrantsCache.close();
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache;
+
+/**
+ * Receives the metrics of the plugin and its caches, to publish them to a metrics system. Every method has an empty
+ * default implementation, so that an implementation only overrides the metrics it publishes. Methods are called on the
+ * thread making the request and must not block.
+ */
+public interface S3AccessGrantsMetricsPublisher {
+
+    /**
+     * Publisher discarding every metric, used when none is configured.
+     */
+    S3AccessGrantsMetricsPublisher NO_OP = new S3AccessGrantsMetricsPublisher() {
+    };
+
+    /**
+     * Caches of the plugin.
+     */
+    enum CacheName {
+        ACCESS_GRANTS,
+        ACCESS_DENIED,
+        ACCOUNT_ID,
+        BUCKET_REGION,
+        CALLER_ACCOUNT_ID,
+        /** Recent failures to resolve the account id of a bucket, only hits and evictions are published. */
+        ACCOUNT_ID_FAILURE,
+        /** Recent failures to resolve the region of a bucket, only hits and evictions are published. */
+        BUCKET_REGION_FAILURE
+    }
+
+    /**
+     * Calls made by the plugin to AWS services.
+     */
+    enum RemoteCall {
+        GET_DATA_ACCESS,
+        GET_ACCESS_GRANTS_INSTANCE_FOR_PREFIX,
+        GET_CALLER_IDENTITY,
+        HEAD_BUCKET
+    }
+
+    /**
+     * Reasons for the plugin to return the credentials it was configured with instead of Access Grants credentials.
+     */
+    enum FallbackReason {
+        FALLBACK_ENABLED,
+        UNSUPPORTED_OPERATION
+    }
+
+    /**
+     * Called when a lookup is answered from the cache.
+     */
+    default void cacheHit(CacheName cacheName) {
+    }
+
+    /**
+     * Called when a lookup is not answered from the cache.
+     */
+    default void cacheMiss(CacheName cacheName) {
+    }
+
+    /**
+     * Called when an entry is evicted from the cache because of its size or expiry.
+     */
+    default void cacheEviction(CacheName cacheName) {
+    }
+
+    /**
+     * Called when the value of a missed lookup has been loaded, including the calls to AWS services it took.
+     * @param latencyNanos time taken by the load, in nanoseconds
+     * @param success false if the load failed with an exception
+     */
+    default void cacheLoad(CacheName cacheName, long latencyNanos, boolean success) {
+    }
+
+    /**
+     * Called when a call to an AWS service completes.
+     * @param latencyNanos time taken by the call, in nanoseconds
+     * @param success false if the call failed with an exception
+     */
+    default void remoteCall(RemoteCall remoteCall, long latencyNanos, boolean success) {
+    }
+
+    /**
+     * Called when a request falls back to the credentials the plugin was configured with.
+     */
+    default void fallback(FallbackReason reason) {
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.regions.Regions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Account ids of the Access Grants instances and regions of buckets which are known ahead of time and never change. The
+ * resolvers answer lookups for these buckets from the pinned entries, which never expire and are never evicted, instead
+ * of calling S3 Control or S3.
+ */
+public final class S3AccessGrantsPinnedBuckets {
+    public static final S3AccessGrantsPinnedBuckets NONE = new S3AccessGrantsPinnedBuckets(Collections.emptyMap(), Collections.emptyMap());
+
+    private static final String ACCOUNT_ID_SUFFIX = ".accountId";
+    private static final String REGION_SUFFIX = ".region";
+
+    private final Map<String, String> bucketAccountIds;
+    private final Map<String, Regions> bucketRegions;
+
+    /**
+     * @param bucketAccountIds account ids of the Access Grants instances keyed by bucket name
+     * @param bucketRegions regions keyed by bucket name
+     */
+    public S3AccessGrantsPinnedBuckets(Map<String, String> bucketAccountIds, Map<String, Regions> bucketRegions) {
+        if (bucketAccountIds == null || bucketRegions == null) {
+            throw new IllegalArgumentException("bucketAccountIds and bucketRegions are required");
+        }
+        this.bucketAccountIds = Collections.unmodifiableMap(new HashMap<>(bucketAccountIds));
+        this.bucketRegions = Collections.unmodifiableMap(new HashMap<>(bucketRegions));
+    }
+
+    public Map<String, String> getBucketAccountIds() {
+        return bucketAccountIds;
+    }
+
+    public Map<String, Regions> getBucketRegions() {
+        return bucketRegions;
+    }
+
+    /**
+     * This method reads pinned buckets from a properties file, in which the account id and the region of a bucket are
+     * given by the keys bucket-name.accountId and bucket-name.region, e.g.
+     * <pre>
+     * my-data-lake-bucket.accountId=123456789012
+     * my-data-lake-bucket.region=us-east-1
+     * </pre>
+     * @param file properties file to read the buckets from
+     * @return the pinned buckets
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a key is neither an account id nor a region, or a region is unknown
+     */
+    public static S3AccessGrantsPinnedBuckets readFrom(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return readFrom(reader);
+        }
+    }
+
+    static S3AccessGrantsPinnedBuckets readFrom(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        Map<String, String> bucketAccountIds = new HashMap<>();
+        Map<String, Regions> bucketRegions = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (key.endsWith(ACCOUNT_ID_SUFFIX)) {
+                bucketAccountIds.put(key.substring(0, key.length() - ACCOUNT_ID_SUFFIX.length()), value);
+            } else if (key.endsWith(REGION_SUFFIX)) {
+                bucketRegions.put(key.substring(0, key.length() - REGION_SUFFIX.length()), Regions.fromName(value));
+            } else {
+                throw new IllegalArgumentException("Expecting a key ending with " + ACCOUNT_ID_SUFFIX + " or " + REGION_SUFFIX + ", found " + key);
+            }
+        }
+        return new S3AccessGrantsPinnedBuckets(bucketAccountIds, bucketRegions);
+    }
+}
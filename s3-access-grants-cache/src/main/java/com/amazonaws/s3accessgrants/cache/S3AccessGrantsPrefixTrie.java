@@ -0,0 +1,345 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.services.s3control.model.Permission;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.S3_PREFIX_SCHEME_LENGTH;
+
+/**
+ * Index of the keys held in {@link S3AccessGrantsCache}, kept as one radix tree of S3 prefixes per requester. It finds
+ * the cached key covering an S3 prefix in a single walk of the prefix, with the matching rules and order of preference
+ * of the level by level cache search: a key ending on a "/" boundary of the prefix is preferred over a key of type
+ * "s3://bucketname/foo*", the requested permission over READWRITE, and a longer key over a shorter one.
+ * Lookups do not lock and do not allocate. Updates are serialized per requester and copy the arrays they change.
+ * The index may still hold keys which have left the cache, a match has to be confirmed with the cache.
+ */
+class S3AccessGrantsPrefixTrie {
+    private static final int PERMISSION_COUNT = Permission.values().length;
+    private static final int READWRITE = Permission.READWRITE.ordinal();
+    // "s3:/" is the shortest prefix probed at prefix level, wildcard keys are longer than "s3://*".
+    private static final int MIN_PREFIX_DEPTH = S3_PREFIX_SCHEME_LENGTH - 1;
+    private static final int MIN_WILDCARD_DEPTH = S3_PREFIX_SCHEME_LENGTH + 1;
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final ConcurrentHashMap<CacheKey.Identity, Tree> trees = new ConcurrentHashMap<>();
+
+    /**
+     * This method returns the cached key which covers the S3 prefix of the cacheKey.
+     * @param cacheKey CacheKey consists of AwsCredentialsIdentity, Permission, and S3Prefix.
+     * @return the covering key, or null if none is indexed.
+     */
+    CacheKey findCoveringKey(CacheKey cacheKey) {
+        Tree tree = trees.get(cacheKey.identity);
+        return tree == null ? null : tree.find(cacheKey.s3Prefix, cacheKey.permission);
+    }
+
+    /**
+     * This method indexes a key which has been put in the cache.
+     */
+    void put(CacheKey cacheKey) {
+        while (true) {
+            Tree tree = trees.computeIfAbsent(cacheKey.identity, identity -> new Tree());
+            tree.lock.lock();
+            try {
+                if (tree.removed) {
+                    continue;
+                }
+                tree.put(cacheKey);
+                return;
+            } finally {
+                tree.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * This method removes a key which has left the cache, unless it has been cached again since. The cache is checked
+     * under the lock serializing the updates of the requester, so that a key put in the cache concurrently, and indexed
+     * right after, is not removed from the index.
+     * @param cacheKey key which has left the cache.
+     * @param cachedEntries entries of the cache.
+     */
+    void removeIfNotCached(CacheKey cacheKey, Map<CacheKey, ?> cachedEntries) {
+        remove(cacheKey, cachedEntries::containsKey);
+    }
+
+    /**
+     * This method removes a key which is being evicted from the cache. Eviction holds the entry of the key, a put of the
+     * same key completes and is indexed after it.
+     */
+    void remove(CacheKey cacheKey) {
+        remove(cacheKey, key -> false);
+    }
+
+    private void remove(CacheKey cacheKey, Predicate<CacheKey> isCached) {
+        Tree tree = trees.get(cacheKey.identity);
+        if (tree == null) {
+            return;
+        }
+        tree.lock.lock();
+        try {
+            if (tree.removed || isCached.test(cacheKey)) {
+                return;
+            }
+            tree.remove(cacheKey);
+            if (tree.isEmpty()) {
+                tree.removed = true;
+                trees.remove(cacheKey.identity, tree);
+            }
+        } finally {
+            tree.lock.unlock();
+        }
+    }
+
+    /**
+     * This method removes every key from the index.
+     */
+    void clear() {
+        for (Map.Entry<CacheKey.Identity, Tree> entry : trees.entrySet()) {
+            Tree tree = entry.getValue();
+            tree.lock.lock();
+            try {
+                tree.removed = true;
+            } finally {
+                tree.lock.unlock();
+            }
+            trees.remove(entry.getKey(), tree);
+        }
+    }
+
+    private static final class Tree {
+        // a lock rather than a monitor, so that updates made on virtual threads do not pin their carrier thread
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Node root = new Node("", NO_CHILDREN, null);
+        private boolean removed;
+
+        private CacheKey find(String s3Prefix, Permission permission) {
+            int requested = permission.ordinal();
+            boolean readWriteCovers = permission == Permission.READ || permission == Permission.WRITE;
+            CacheKey prefixMatch = null;
+            CacheKey readWritePrefixMatch = null;
+            CacheKey wildcardMatch = null;
+            CacheKey readWriteWildcardMatch = null;
+            int length = s3Prefix.length();
+            Node node = root;
+            int depth = 0;
+            while (true) {
+                CacheKey[] keys = node.keys;
+                if (keys != null) {
+                    // the node holds s3Prefix[0, depth)
+                    if (depth >= MIN_PREFIX_DEPTH && (depth == length || s3Prefix.charAt(depth) == '/')) {
+                        prefixMatch = pick(keys[requested], prefixMatch);
+                        readWritePrefixMatch = readWriteCovers ? pick(keys[READWRITE], readWritePrefixMatch) : null;
+                    }
+                    if (depth > MIN_WILDCARD_DEPTH && s3Prefix.charAt(depth - 1) == '*') {
+                        wildcardMatch = pick(keys[requested], wildcardMatch);
+                        readWriteWildcardMatch = readWriteCovers ? pick(keys[READWRITE], readWriteWildcardMatch) : null;
+                    }
+                }
+                if (depth >= MIN_WILDCARD_DEPTH) {
+                    Node wildcard = node.child('*');
+                    if (wildcard != null && wildcard.label.length() == 1 && wildcard.keys != null) {
+                        wildcardMatch = pick(wildcard.keys[requested], wildcardMatch);
+                        readWriteWildcardMatch = readWriteCovers ? pick(wildcard.keys[READWRITE], readWriteWildcardMatch) : null;
+                    }
+                }
+                if (depth == length) {
+                    break;
+                }
+                Node child = node.child(s3Prefix.charAt(depth));
+                if (child == null) {
+                    break;
+                }
+                String label = child.label;
+                int matched = 1;
+                while (matched < label.length() && depth + matched < length
+                        && label.charAt(matched) == s3Prefix.charAt(depth + matched)) {
+                    matched++;
+                }
+                if (matched < label.length()) {
+                    // the child holds s3Prefix[0, depth + matched) + "*"
+                    if (matched == label.length() - 1 && label.charAt(matched) == '*'
+                            && depth + matched >= MIN_WILDCARD_DEPTH && child.keys != null) {
+                        wildcardMatch = pick(child.keys[requested], wildcardMatch);
+                        readWriteWildcardMatch = readWriteCovers ? pick(child.keys[READWRITE], readWriteWildcardMatch) : null;
+                    }
+                    break;
+                }
+                depth += matched;
+                node = child;
+            }
+            if (prefixMatch != null) {
+                return prefixMatch;
+            }
+            if (readWritePrefixMatch != null) {
+                return readWritePrefixMatch;
+            }
+            return wildcardMatch != null ? wildcardMatch : readWriteWildcardMatch;
+        }
+
+        private static CacheKey pick(CacheKey longer, CacheKey shorter) {
+            return longer != null ? longer : shorter;
+        }
+
+        private void put(CacheKey cacheKey) {
+            String s3Prefix = cacheKey.s3Prefix;
+            Node node = root;
+            int depth = 0;
+            while (depth < s3Prefix.length()) {
+                Node child = node.child(s3Prefix.charAt(depth));
+                if (child == null) {
+                    CacheKey[] keys = new CacheKey[PERMISSION_COUNT];
+                    keys[cacheKey.permission.ordinal()] = cacheKey;
+                    node.addChild(new Node(s3Prefix.substring(depth), NO_CHILDREN, keys));
+                    return;
+                }
+                String label = child.label;
+                int common = 1;
+                while (common < label.length() && depth + common < s3Prefix.length()
+                        && label.charAt(common) == s3Prefix.charAt(depth + common)) {
+                    common++;
+                }
+                if (common < label.length()) {
+                    Node tail = new Node(label.substring(common), child.children, child.keys);
+                    Node split = new Node(label.substring(0, common), new Node[] {tail}, null);
+                    node.replaceChild(child, split);
+                    child = split;
+                }
+                depth += common;
+                node = child;
+            }
+            CacheKey[] keys = node.keys == null ? new CacheKey[PERMISSION_COUNT] : node.keys.clone();
+            keys[cacheKey.permission.ordinal()] = cacheKey;
+            node.keys = keys;
+        }
+
+        private void remove(CacheKey cacheKey) {
+            String s3Prefix = cacheKey.s3Prefix;
+            List<Node> path = new ArrayList<>();
+            Node node = root;
+            path.add(node);
+            int depth = 0;
+            while (depth < s3Prefix.length()) {
+                Node child = node.child(s3Prefix.charAt(depth));
+                if (child == null || !s3Prefix.startsWith(child.label, depth)) {
+                    return;
+                }
+                depth += child.label.length();
+                node = child;
+                path.add(node);
+            }
+            int slot = cacheKey.permission.ordinal();
+            if (node.keys == null || !cacheKey.equals(node.keys[slot])) {
+                return;
+            }
+            CacheKey[] keys = node.keys.clone();
+            keys[slot] = null;
+            node.keys = isEmpty(keys) ? null : keys;
+            for (int i = path.size() - 1; i > 0; i--) {
+                Node emptyNode = path.get(i);
+                if (emptyNode.keys != null || emptyNode.children.length > 0) {
+                    break;
+                }
+                path.get(i - 1).removeChild(emptyNode);
+            }
+        }
+
+        private boolean isEmpty() {
+            return root.keys == null && root.children.length == 0;
+        }
+
+        private static boolean isEmpty(CacheKey[] keys) {
+            for (CacheKey key : keys) {
+                if (key != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A node of the tree, holding the cached keys, one per permission, whose S3 prefix ends at the node. Children are
+     * sorted by the first character of their label.
+     */
+    private static final class Node {
+        private final String label;
+        private volatile Node[] children;
+        private volatile CacheKey[] keys;
+
+        private Node(String label, Node[] children, CacheKey[] keys) {
+            this.label = label;
+            this.children = children;
+            this.keys = keys;
+        }
+
+        private Node child(char c) {
+            Node[] children = this.children;
+            int index = indexOf(children, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private void addChild(Node child) {
+            Node[] children = this.children;
+            int insertAt = -indexOf(children, child.label.charAt(0)) - 1;
+            Node[] updated = new Node[children.length + 1];
+            System.arraycopy(children, 0, updated, 0, insertAt);
+            updated[insertAt] = child;
+            System.arraycopy(children, insertAt, updated, insertAt + 1, children.length - insertAt);
+            this.children = updated;
+        }
+
+        private void replaceChild(Node child, Node replacement) {
+            Node[] updated = children.clone();
+            updated[indexOf(updated, child.label.charAt(0))] = replacement;
+            this.children = updated;
+        }
+
+        private void removeChild(Node child) {
+            Node[] children = this.children;
+            int index = indexOf(children, child.label.charAt(0));
+            Node[] updated = Arrays.copyOf(children, children.length - 1);
+            System.arraycopy(children, index + 1, updated, index, children.length - index - 1);
+            this.children = updated;
+        }
+
+        private static int indexOf(Node[] children, char c) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = children[mid].label.charAt(0);
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
@@ -20,13 +20,34 @@ public class S3AccessGrantsCacheConstants {
     public static final int MAX_LIMIT_ACCOUNT_ID_MAX_CACHE_SIZE = 1_000_000;
     public static final int DEFAULT_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS = 3_600; // 1 hour
     public static final int MAX_LIMIT_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS = 2_592_000; // 30 days
+    public static final int DEFAULT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS = 30;
+    public static final int MAX_LIMIT_EXPIRE_FAILURE_CACHE_AFTER_WRITE_SECONDS = 3_600; // 1 hour
 
     public static final int DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE = 30_000;
     public static final int MAX_LIMIT_ACCESS_GRANTS_MAX_CACHE_SIZE = 1_000_000;
     public static final int CACHE_EXPIRATION_TIME_PERCENTAGE = 90;
     public static final int DEFAULT_DURATION = 3_600;
+    public static final int REFRESH_AHEAD_TIME_PERCENTAGE = 80;
+    public static final int REFRESH_AHEAD_THREAD_POOL_SIZE = 2;
+    public static final int DEFAULT_STALE_SAFETY_MARGIN_SECONDS = 60;
+    public static final int DEFAULT_PREWARM_PARALLELISM = 16;
+    public static final int DEFAULT_ACCOUNT_ID_RESOLVE_ALL_PARALLELISM = 16;
+    public static final int DEFAULT_BUCKET_REGION_RESOLVE_ALL_PARALLELISM = 16;
+    public static final int DEFAULT_EXECUTOR_MAX_THREADS = 16;
+    public static final int DEFAULT_EXECUTOR_KEEP_ALIVE_SECONDS = 60;
 
     public static final int ACCESS_DENIED_CACHE_SIZE = 3_000;
+    public static final int ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS = 300; // 5 minutes
+    public static final int MAX_LIMIT_ACCESS_DENIED_EXPIRE_CACHE_AFTER_WRITE_SECONDS = 86_400; // 1 day
+
+    public static final double THROTTLING_MAX_RATE = 1_000; // calls per second
+    public static final double THROTTLING_MIN_RATE = 1;
+    public static final double THROTTLING_ADDITIVE_INCREASE = 10;
+    public static final double THROTTLING_MULTIPLICATIVE_DECREASE = 0.5;
+    public static final int THROTTLING_DECREASE_WINDOW_MILLIS = 1_000;
+    public static final int DEFAULT_THROTTLING_DEADLINE_MILLIS = 5_000;
+
+    public static final int S3_PREFIX_SCHEME_LENGTH = 5; // "s3://"
 
     public static final int BUCKET_REGION_CACHE_SIZE = 1_000;
     public static final int MAX_BUCKET_REGION_CACHE_SIZE = 1_000_000;
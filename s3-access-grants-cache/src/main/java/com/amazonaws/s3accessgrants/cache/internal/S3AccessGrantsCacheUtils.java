@@ -15,11 +15,53 @@
 
 package com.amazonaws.s3accessgrants.cache.internal;
 
+import com.amazonaws.AmazonServiceException;
+
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.S3_PREFIX_SCHEME_LENGTH;
 
 public class S3AccessGrantsCacheUtils {
+    private static final Set<String> BUCKET_FAILURE_ERROR_CODES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "NoSuchBucket", "AccessGrantsInstanceNotExistsError")));
+
+    /**
+     * This method returns the bucket of an S3 prefix. Prefixes starting with s3:// are split at the first slash following
+     * the scheme without parsing them as a URI.
+     * @param s3Prefix e.g., s3://bucket-name/path/to/helloworld.txt
+     * @return name of the bucket, e.g. bucket-name
+     */
     public static String getBucketName(String s3Prefix) {
-        return URI.create(s3Prefix).getHost();
+        if (!s3Prefix.startsWith("s3://")) {
+            return URI.create(s3Prefix).getHost();
+        }
+        int bucketEnd = s3Prefix.indexOf('/', S3_PREFIX_SCHEME_LENGTH);
+        return bucketEnd < 0 ? s3Prefix.substring(S3_PREFIX_SCHEME_LENGTH) : s3Prefix.substring(S3_PREFIX_SCHEME_LENGTH, bucketEnd);
+    }
+
+    /**
+     * A bucket which does not exist or has no Access Grants instance is going to fail the same way for every caller if the
+     * call is made again right away. Other client errors, e.g. access denied or an expired token, belong to the
+     * credentials of the caller and are not cached per bucket.
+     * @param e exception received from the service
+     * @return true if the failure can be cached for the bucket
+     */
+    public static boolean isCacheableFailure(AmazonServiceException e) {
+        return e.getStatusCode() == 404 || BUCKET_FAILURE_ERROR_CODES.contains(e.getErrorCode());
+    }
+
+    /**
+     * Access Grants denies a request with 403 Forbidden when the caller is no longer granted access, and with 404 Not Found
+     * when the grant or its instance is gone. Throttling and server errors say nothing about the grant.
+     * @param e exception received from the service
+     * @return true if Access Grants refused the access the request was made for
+     */
+    public static boolean isAccessDenial(AmazonServiceException e) {
+        return e.getStatusCode() == 403 || e.getStatusCode() == 404;
     }
 
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_EXECUTOR_KEEP_ALIVE_SECONDS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.DEFAULT_EXECUTOR_MAX_THREADS;
+
+/**
+ * Threads the blocking calls to S3 Control, STS and S3 made in the background run on. On Java 21 and later the
+ * multi-release jar replaces this class with one running them on virtual threads.
+ */
+public final class S3AccessGrantsExecutors {
+
+    private S3AccessGrantsExecutors() {
+    }
+
+    /**
+     * @return the executor asynchronous lookups of components built on their own run on when none is configured. It is
+     * shared by those components and never shut down, its daemon threads exit once they are idle.
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Creates an executor owned by the caller, which has to shut it down. Its daemon threads are bounded and exit once
+     * they are idle, so that blocking calls do not run on, nor exhaust, the common fork join pool.
+     * @param name prefix of the names of the threads
+     * @return a new executor running the calls on a bounded pool of daemon threads.
+     */
+    public static ExecutorService newExecutor(String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_EXECUTOR_MAX_THREADS, DEFAULT_EXECUTOR_MAX_THREADS,
+                DEFAULT_EXECUTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), numberedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @param name name of the threads
+     * @return a factory of platform daemon threads with the given name, for pooled threads such as those of schedulers.
+     */
+    public static ThreadFactory threadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ThreadFactory numberedThreadFactory(String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class DefaultExecutorHolder {
+        private static final ExecutorService DEFAULT_EXECUTOR = newExecutor("s3-access-grants");
+    }
+}
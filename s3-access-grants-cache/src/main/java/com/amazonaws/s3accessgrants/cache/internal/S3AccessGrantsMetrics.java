@@ -0,0 +1,62 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache.internal;
+
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.CacheName;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.RemoteCall;
+
+import java.util.function.Supplier;
+
+/**
+ * Times cache loads and calls to AWS services and reports them to a metrics publisher.
+ */
+public final class S3AccessGrantsMetrics {
+
+    private S3AccessGrantsMetrics() {
+    }
+
+    /**
+     * This method makes the call and reports its latency and outcome as a remote call.
+     * @return result of the call
+     */
+    public static <T> T timeRemoteCall(S3AccessGrantsMetricsPublisher metricsPublisher, RemoteCall remoteCall, Supplier<T> call) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } finally {
+            metricsPublisher.remoteCall(remoteCall, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * This method loads a value missing from the cache and reports its latency and outcome as a cache load.
+     * @return loaded value
+     */
+    public static <T> T timeCacheLoad(S3AccessGrantsMetricsPublisher metricsPublisher, CacheName cacheName, Supplier<T> load) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = load.get();
+            success = true;
+            return result;
+        } finally {
+            metricsPublisher.cacheLoad(cacheName, System.nanoTime() - start, success);
+        }
+    }
+}
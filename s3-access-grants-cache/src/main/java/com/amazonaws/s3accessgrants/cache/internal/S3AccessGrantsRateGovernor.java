@@ -0,0 +1,169 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache.internal;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.THROTTLING_ADDITIVE_INCREASE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.THROTTLING_DECREASE_WINDOW_MILLIS;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.THROTTLING_MAX_RATE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.THROTTLING_MIN_RATE;
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheConstants.THROTTLING_MULTIPLICATIVE_DECREASE;
+
+/**
+ * Limits the rate of calls to S3 Control with a token bucket whose rate adapts to throttling: it is cut by a factor when
+ * calls are throttled, at most once per window so that the calls throttled together count as one, and grows back
+ * linearly while calls succeed (AIMD). Calls over the rate wait for their turn up to a deadline, after which they are
+ * made anyway and the service decides whether they are throttled.
+ */
+public final class S3AccessGrantsRateGovernor {
+    private static final S3AccessGrantsRateGovernor DISABLED = new S3AccessGrantsRateGovernor(false, 0);
+    private static final Log logger = LogFactory.getLog(S3AccessGrantsRateGovernor.class);
+
+    private final boolean enabled;
+    private final long deadlineNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private double rate = THROTTLING_MAX_RATE;
+    private double tokens = THROTTLING_MAX_RATE;
+    private long lastRefillNanos = System.nanoTime();
+    private long lastDecreaseNanos = lastRefillNanos - TimeUnit.MILLISECONDS.toNanos(THROTTLING_DECREASE_WINDOW_MILLIS);
+
+    private S3AccessGrantsRateGovernor(boolean enabled, long deadlineNanos) {
+        this.enabled = enabled;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return a governor which lets every call through.
+     */
+    public static S3AccessGrantsRateGovernor disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @param deadlineMillis how long a call waits for its turn at most before it is made anyway.
+     * @return a governor adapting its rate to throttling.
+     */
+    public static S3AccessGrantsRateGovernor adaptive(int deadlineMillis) {
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("deadlineMillis cannot be negative");
+        }
+        return new S3AccessGrantsRateGovernor(true, TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+    }
+
+    /**
+     * This method makes the call once the rate allows it, and adapts the rate to its outcome.
+     * @param call call to S3 Control.
+     * @return the result of the call.
+     */
+    public <T> T call(Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        acquire();
+        T result;
+        try {
+            result = call.get();
+        } catch (AmazonServiceException e) {
+            if (RetryUtils.isThrottlingException(e)) {
+                onThrottled();
+            }
+            throw e;
+        }
+        onSuccess();
+        return result;
+    }
+
+    /**
+     * @return the number of calls per second currently allowed.
+     */
+    public double rate() {
+        lock.lock();
+        try {
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire() {
+        long waitNanos;
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            // Tokens go negative to reserve the turns of the calls already waiting.
+            waitNanos = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+            if (waitNanos > deadlineNanos) {
+                // The call is made once the deadline has passed rather than failed, without reserving a turn.
+                logger.debug("Making a call to S3 Control after " + TimeUnit.NANOSECONDS.toMillis(deadlineNanos)
+                        + " ms instead of its turn in " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms at " + rate + " calls per second.");
+                waitNanos = deadlineNanos;
+            } else {
+                tokens -= 1;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AbortedException("Interrupted while waiting to call S3 Access Grants", e);
+            }
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    private void onSuccess() {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            // Grows the rate by about THROTTLING_ADDITIVE_INCREASE for every second of successful calls.
+            rate = Math.min(THROTTLING_MAX_RATE, rate + THROTTLING_ADDITIVE_INCREASE / rate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onThrottled() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos < TimeUnit.MILLISECONDS.toNanos(THROTTLING_DECREASE_WINDOW_MILLIS)) {
+                return;
+            }
+            lastDecreaseNanos = now;
+            refill(now);
+            rate = Math.max(THROTTLING_MIN_RATE, rate * THROTTLING_MULTIPLICATIVE_DECREASE);
+            tokens = Math.min(tokens, rate);
+            logger.debug("Throttled by S3 Access Grants, reducing the call rate to " + rate + " calls per second.");
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache.internal;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent calls made for the same key. The first caller for a key executes the call and every caller
+ * that arrives while the call is in flight waits for it and shares its result or its exception. When keys belong to
+ * groups, the keys in flight are indexed by group so that the calls of a group can be searched without scanning every
+ * call in flight.
+ * @param <K> key the calls are deduplicated on
+ * @param <V> result of the call
+ */
+public class S3AccessGrantsSingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlightCalls = new ConcurrentHashMap<>();
+    private final Function<K, ?> groupOf;
+    private final ConcurrentHashMap<Object, Set<K>> inFlightKeysByGroup = new ConcurrentHashMap<>();
+
+    public S3AccessGrantsSingleFlight() {
+        this(null);
+    }
+
+    /**
+     * @param groupOf function returning the group of a key, in-flight calls are searched within a group by find(), or
+     *                null if the calls are never searched
+     */
+    public S3AccessGrantsSingleFlight(Function<K, ?> groupOf) {
+        this.groupOf = groupOf;
+    }
+
+    /**
+     * This method executes the call unless a call for the same key is already in flight, in which case it waits for
+     * that call instead.
+     * @param key key the call is deduplicated on
+     * @param call call to execute
+     * @return result of the call
+     */
+    public V execute(K key, Supplier<V> call) {
+        CompletableFuture<V> inFlightCall = new CompletableFuture<>();
+        CompletableFuture<V> existingCall = inFlightCalls.putIfAbsent(key, inFlightCall);
+        if (existingCall != null) {
+            return join(existingCall);
+        }
+        track(key);
+        try {
+            V result = call.get();
+            inFlightCall.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            inFlightCall.completeExceptionally(e);
+            throw e;
+        } finally {
+            remove(key, inFlightCall);
+        }
+    }
+
+    /**
+     * This method submits the call to the executor unless a call for the same key is already in flight, in which case it
+     * returns the future of that call instead. Synchronous and asynchronous callers of the same key share the call.
+     * @param key key the call is deduplicated on
+     * @param call call to execute
+     * @param executor executor the call runs on
+     * @return future completed with the result of the call, or with the exception it failed with
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<V> call, Executor executor) {
+        CompletableFuture<V> inFlightCall = new CompletableFuture<>();
+        CompletableFuture<V> existingCall = inFlightCalls.putIfAbsent(key, inFlightCall);
+        if (existingCall != null) {
+            return existingCall;
+        }
+        track(key);
+        try {
+            executor.execute(() -> {
+                try {
+                    inFlightCall.complete(call.get());
+                } catch (RuntimeException | Error e) {
+                    inFlightCall.completeExceptionally(e);
+                } finally {
+                    remove(key, inFlightCall);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            remove(key, inFlightCall);
+            inFlightCall.completeExceptionally(e);
+        }
+        return inFlightCall;
+    }
+
+    /**
+     * @param key key the call is deduplicated on
+     * @return true if a call for the key is in flight
+     */
+    public boolean isInFlight(K key) {
+        return inFlightCalls.containsKey(key);
+    }
+
+    /**
+     * This method returns an in-flight call of the given group whose key matches the given predicate. Only the calls of
+     * the group are searched.
+     * @param group group the key of the call belongs to
+     * @param keyMatcher predicate the key of the call has to match
+     * @return the in-flight call, or null if no call matches
+     */
+    public CompletableFuture<V> find(Object group, Predicate<K> keyMatcher) {
+        Set<K> inFlightKeys = inFlightKeysByGroup.get(group);
+        if (inFlightKeys == null) {
+            return null;
+        }
+        for (K inFlightKey : inFlightKeys) {
+            CompletableFuture<V> inFlightCall = inFlightCalls.get(inFlightKey);
+            if (inFlightCall != null && keyMatcher.test(inFlightKey)) {
+                return inFlightCall;
+            }
+        }
+        return null;
+    }
+
+    private void track(K key) {
+        if (groupOf == null) {
+            return;
+        }
+        inFlightKeysByGroup.compute(groupOf.apply(key), (group, keys) -> {
+            Set<K> groupKeys = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            groupKeys.add(key);
+            return groupKeys;
+        });
+    }
+
+    private void remove(K key, CompletableFuture<V> inFlightCall) {
+        if (groupOf != null) {
+            inFlightKeysByGroup.computeIfPresent(groupOf.apply(key), (group, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+        inFlightCalls.remove(key, inFlightCall);
+    }
+
+    /**
+     * This method waits for the call to complete and rethrows the exception the call failed with.
+     * @param call in-flight call
+     * @return result of the call
+     */
+    public static <V> V join(CompletableFuture<V> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads the blocking calls to S3 Control, STS and S3 made in the background run on. This is the Java 21 version of
+ * the class, which runs every call on its own virtual thread so that concurrent lookups do not hold a platform thread
+ * each while they wait for the service. Schedulers keep pooled platform threads, which only dispatch the calls.
+ */
+public final class S3AccessGrantsExecutors {
+    private static final ExecutorService VIRTUAL_THREAD_EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("s3-access-grants-", 0).factory());
+
+    private S3AccessGrantsExecutors() {
+    }
+
+    /**
+     * @return the executor asynchronous lookups run on when none is configured.
+     */
+    public static Executor defaultExecutor() {
+        return VIRTUAL_THREAD_EXECUTOR;
+    }
+
+    /**
+     * Creates an executor owned by the caller, which has to shut it down.
+     * @param name prefix of the names of the threads
+     * @return a new executor running every call on its own virtual thread.
+     */
+    public static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    /**
+     * @param name name of the threads
+     * @return a factory of platform daemon threads with the given name, for pooled threads such as those of schedulers.
+     */
+    public static ThreadFactory threadFactory(String name) {
+        return Thread.ofPlatform().name(name).daemon(true).factory();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3control.model.Permission;
+import org.junit.Test;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.AWS_BASIC_CREDENTIALS;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.AWS_SESSION_CREDENTIALS;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_PREFIX;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_PREFIX_2;
+
+public class CacheKeyTest {
+
+    @Test
+    public void cacheKey_equalForSameAccessKeyAndSecretKey() {
+        // Given
+        CacheKey key1 = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix(TEST_S3_PREFIX).build();
+        CacheKey key2 = CacheKey.builder()
+                .credentials(AWS_SESSION_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix(TEST_S3_PREFIX).build();
+        CacheKey key3 = CacheKey.builder()
+                .credentials(new BasicAWSCredentials("accessKey", "otherSecretAccessKey"))
+                .permission(Permission.READ)
+                .s3Prefix(TEST_S3_PREFIX).build();
+        // Then
+        assertThat(key1).isEqualTo(key2);
+        assertThat(key1.hashCode()).isEqualTo(key2.hashCode());
+        assertThat(key1).isNotEqualTo(key3);
+    }
+
+    @Test
+    public void cacheKey_derivedKeysShareIdentity() {
+        // Given
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix(TEST_S3_PREFIX).build();
+        // When
+        CacheKey readWriteKey = key.withPermission(Permission.READWRITE);
+        CacheKey otherPrefixKey = key.withS3Prefix(TEST_S3_PREFIX_2);
+        // Then
+        assertThat(readWriteKey.identity).isSameAs(key.identity);
+        assertThat(otherPrefixKey.identity).isSameAs(key.identity);
+        assertThat(key.withPermission(Permission.READ)).isSameAs(key);
+        assertThat(readWriteKey).isEqualTo(key.toBuilder().permission(Permission.READWRITE).build());
+        assertThat(otherPrefixKey).isEqualTo(key.toBuilder().s3Prefix(TEST_S3_PREFIX_2).build());
+        assertThat(readWriteKey).isNotEqualTo(key);
+        assertThat(otherPrefixKey).isNotEqualTo(key);
+    }
+}
@@ -91,4 +91,10 @@ public class S3AccessGrantsAccessDeniedCacheTest {
         assertThrows(IllegalArgumentException.class, () -> S3AccessGrantsAccessDeniedCache.builder()
                 .maxCacheSize(1_000_020).build());
     }
+
+    @Test
+    public void accessDeniedCache_throwsErrorForTTLBiggerThanMaxTTL() {
+        assertThrows(IllegalArgumentException.class, () -> S3AccessGrantsAccessDeniedCache.builder()
+                .expireCacheAfterWriteSeconds(86_401).build());
+    }
 }
@@ -34,9 +34,19 @@ import java.sql.Date;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -82,7 +92,11 @@ public class S3AccessGrantsCacheTest {
     }
 
     private GetDataAccessResult getDataAccessResponseSetUp(String s3Prefix) {
-        Instant ttl  = Instant.now().plus(Duration.ofMinutes(1));
+        return getDataAccessResponseSetUp(s3Prefix, Duration.ofMinutes(1));
+    }
+
+    private GetDataAccessResult getDataAccessResponseSetUp(String s3Prefix, Duration lifetime) {
+        Instant ttl  = Instant.now().plus(lifetime);
         Credentials credentials = new Credentials().withAccessKeyId(ACCESS_KEY_ID)
                 .withSecretAccessKey(SECRET_ACCESS_KEY)
                 .withSessionToken(SESSION_TOKEN)
@@ -334,4 +348,404 @@ public class S3AccessGrantsCacheTest {
         verify(s3ControlClient, times(2)).getDataAccess(any(GetDataAccessRequest.class));
 
     }
+
+    @Test
+    public void accessGrantsCache_concurrentMissesForSameKeyShareSingleRequest() throws Exception {
+        // Given
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> {
+            releaseRequest.await();
+            return getDataAccessResponseSetUp("s3://bucket/foo");
+        });
+        // When
+        AtomicReference<Object> leaderOutcome = new AtomicReference<>();
+        AtomicReference<Object> waiterOutcome = new AtomicReference<>();
+        Thread leader = startGetCredentials(key, leaderOutcome);
+        awaitWaiting(leader);
+        Thread waiter = startGetCredentials(key, waiterOutcome);
+        awaitWaiting(waiter);
+        releaseRequest.countDown();
+        leader.join();
+        waiter.join();
+        // Then
+        verify(s3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+        assertThat(waiterOutcome.get()).isInstanceOf(AWSCredentials.class);
+        assertThat(waiterOutcome.get()).isSameAs(leaderOutcome.get());
+    }
+
+    @Test
+    public void accessGrantsCache_concurrentMissesForSameKeyShareException() throws Exception {
+        // Given
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        AWSS3ControlException s3ControlException = Mockito.mock(AWSS3ControlException.class);
+        when(s3ControlException.getStatusCode()).thenReturn(403);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> {
+            releaseRequest.await();
+            throw s3ControlException;
+        });
+        // When
+        AtomicReference<Object> leaderOutcome = new AtomicReference<>();
+        AtomicReference<Object> waiterOutcome = new AtomicReference<>();
+        Thread leader = startGetCredentials(key, leaderOutcome);
+        awaitWaiting(leader);
+        Thread waiter = startGetCredentials(key, waiterOutcome);
+        awaitWaiting(waiter);
+        releaseRequest.countDown();
+        leader.join();
+        waiter.join();
+        // Then
+        verify(s3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+        assertThat(leaderOutcome.get()).isSameAs(s3ControlException);
+        assertThat(waiterOutcome.get()).isSameAs(s3ControlException);
+    }
+
+    @Test
+    public void accessGrantsCache_concurrentMissCoveredByInFlightWildcardGrant() throws Exception {
+        // Given
+        CacheKey key1 = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READWRITE)
+                .s3Prefix("s3://bucket/foo").build();
+        CacheKey key2 = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/baz/text.txt").build();
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> {
+            releaseRequest.await();
+            return getDataAccessResponseSetUp("s3://bucket/foo");
+        });
+        // When
+        AtomicReference<Object> leaderOutcome = new AtomicReference<>();
+        AtomicReference<Object> waiterOutcome = new AtomicReference<>();
+        Thread leader = startGetCredentials(key1, leaderOutcome);
+        awaitWaiting(leader);
+        Thread waiter = startGetCredentials(key2, waiterOutcome);
+        awaitWaiting(waiter);
+        releaseRequest.countDown();
+        leader.join();
+        waiter.join();
+        // Then
+        verify(s3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+        assertThat(waiterOutcome.get()).isSameAs(leaderOutcome.get());
+    }
+
+    @Test
+    public void accessGrantsCache_concurrentMissOfUnrelatedPrefixDoesNotWait() throws Exception {
+        // Given
+        CacheKey key1 = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READWRITE)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        CacheKey key2 = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/baz/text.txt").build();
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> {
+            GetDataAccessRequest request = invocation.getArgument(0);
+            if (request.getTarget().equals(key1.s3Prefix)) {
+                releaseRequest.await();
+            }
+            return getDataAccessResponseSetUp(request.getTarget());
+        });
+        // When
+        AtomicReference<Object> leaderOutcome = new AtomicReference<>();
+        AtomicReference<Object> otherOutcome = new AtomicReference<>();
+        Thread leader = startGetCredentials(key1, leaderOutcome);
+        awaitWaiting(leader);
+        Thread other = startGetCredentials(key2, otherOutcome);
+        other.join(TimeUnit.SECONDS.toMillis(10));
+        boolean otherCompletedWhileLeaderInFlight = !other.isAlive();
+        releaseRequest.countDown();
+        leader.join();
+        other.join();
+        // Then
+        assertThat(otherCompletedWhileLeaderInFlight).isTrue();
+        assertThat(otherOutcome.get()).isInstanceOf(AWSCredentials.class);
+        verify(s3ControlClient, times(2)).getDataAccess(any(GetDataAccessRequest.class));
+    }
+
+    @Test
+    public void accessGrantsCache_asyncCacheHitCompletesWithoutExecutor() {
+        // Given
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_SESSION_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket2/foo/bar").build();
+        cache.putValueInCache(key, S3_ACCESS_GRANTS_CREDENTIALS, 10);
+        Executor executor = command -> {
+            throw new AssertionError("A cache hit should not be submitted to the executor");
+        };
+        // When
+        CompletableFuture<AWSCredentials> credentials = cache.getCredentialsAsync(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT,
+                accessDeniedCache, executor);
+        // Then
+        assertThat(credentials.isDone()).isTrue();
+        assertThat(credentials.join()).isEqualTo(S3_ACCESS_GRANTS_CREDENTIALS);
+    }
+
+    @Test
+    public void accessGrantsCache_asyncCacheMissesForSameKeyShareSingleRequestOnExecutor() {
+        // Given
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenReturn(getDataAccessResponseSetUp("s3://bucket/foo"));
+        List<Runnable> submitted = new ArrayList<>();
+        // When
+        CompletableFuture<AWSCredentials> first = cacheWithMockedAccountIdResolver.getCredentialsAsync(s3ControlClient, key,
+                TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache, submitted::add);
+        CompletableFuture<AWSCredentials> second = cacheWithMockedAccountIdResolver.getCredentialsAsync(s3ControlClient, key,
+                TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache, submitted::add);
+        assertThat(first.isDone()).isFalse();
+        assertThat(submitted.size()).isEqualTo(1);
+        submitted.get(0).run();
+        // Then
+        verify(s3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+        assertThat(second).isSameAs(first);
+        assertThat(first.join().getAWSAccessKeyId()).isEqualTo(ACCESS_KEY_ID);
+    }
+
+    @Test
+    public void accessGrantsCache_asyncCacheMissCompletesWithServiceException() throws Exception {
+        // Given
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        AWSS3ControlException s3ControlException = Mockito.mock(AWSS3ControlException.class);
+        when(s3ControlException.getStatusCode()).thenReturn(403);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenThrow(s3ControlException);
+        // When
+        CompletableFuture<AWSCredentials> credentials = cacheWithMockedAccountIdResolver.getCredentialsAsync(s3ControlClient, key,
+                TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache, Runnable::run);
+        // Then
+        Throwable failure = null;
+        try {
+            credentials.get();
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        }
+        assertThat(failure).isSameAs(s3ControlException);
+        assertThat(accessDeniedCache.getValueFromCache(key)).isSameAs(s3ControlException);
+    }
+
+    @Test
+    public void accessGrantsCache_publishesCacheAndGetDataAccessMetrics() {
+        // Given
+        S3AccessGrantsMetricsPublisher metricsPublisher = Mockito.mock(S3AccessGrantsMetricsPublisher.class);
+        S3AccessGrantsCache metricsCache = S3AccessGrantsCache.builder()
+                .cacheExpirationTimePercentage(60)
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .metricsPublisher(metricsPublisher)
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).buildWithAccountIdResolver();
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenReturn(getDataAccessResponseSetUp("s3://bucket/foo"));
+        // When
+        metricsCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        metricsCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        // Then
+        verify(metricsPublisher, times(1)).cacheMiss(S3AccessGrantsMetricsPublisher.CacheName.ACCESS_GRANTS);
+        verify(metricsPublisher, times(1)).cacheHit(S3AccessGrantsMetricsPublisher.CacheName.ACCESS_GRANTS);
+        verify(metricsPublisher, times(1)).cacheLoad(eq(S3AccessGrantsMetricsPublisher.CacheName.ACCESS_GRANTS), anyLong(), eq(true));
+        verify(metricsPublisher, times(1)).remoteCall(eq(S3AccessGrantsMetricsPublisher.RemoteCall.GET_DATA_ACCESS), anyLong(), eq(true));
+    }
+
+    @Test
+    public void accessGrantsCache_refreshAheadRenewsCredentialsWhichAreRead() throws Exception {
+        // Given
+        S3AccessGrantsCache refreshAheadCache = S3AccessGrantsCache.builder()
+                .cacheExpirationTimePercentage(60)
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .enableRefreshAhead(true)
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).buildWithAccountIdResolver();
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> getDataAccessResponseSetUp("s3://bucket/foo", Duration.ofSeconds(5)));
+        try {
+            // When
+            refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            Thread.sleep(3000);
+            // Then
+            verify(s3ControlClient, times(2)).getDataAccess(any(GetDataAccessRequest.class));
+            refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            verify(s3ControlClient, times(2)).getDataAccess(any(GetDataAccessRequest.class));
+        } finally {
+            refreshAheadCache.close();
+        }
+    }
+
+    @Test
+    public void accessGrantsCache_refreshAheadSkipsCredentialsWhichAreNotRead() throws Exception {
+        // Given
+        S3AccessGrantsCache refreshAheadCache = S3AccessGrantsCache.builder()
+                .cacheExpirationTimePercentage(60)
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .enableRefreshAhead(true)
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).buildWithAccountIdResolver();
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> getDataAccessResponseSetUp("s3://bucket/foo", Duration.ofSeconds(5)));
+        try {
+            // When
+            refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            Thread.sleep(3000);
+            // Then
+            verify(s3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+        } finally {
+            refreshAheadCache.close();
+        }
+    }
+
+    @Test
+    public void accessGrantsCache_refreshAheadKeepsCredentialsWhenAccessGrantsIsUnavailable() throws Exception {
+        // Given
+        S3AccessGrantsCache refreshAheadCache = S3AccessGrantsCache.builder()
+                .cacheExpirationTimePercentage(60)
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .enableRefreshAhead(true)
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).buildWithAccountIdResolver();
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        AWSS3ControlException serviceUnavailable = new AWSS3ControlException("Service Unavailable");
+        serviceUnavailable.setStatusCode(503);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class)))
+                .thenAnswer(invocation -> getDataAccessResponseSetUp("s3://bucket/foo", Duration.ofSeconds(5)))
+                .thenThrow(serviceUnavailable);
+        try {
+            // When
+            AWSCredentials fetchedCredentials = refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            verify(s3ControlClient, Mockito.timeout(2800).times(2)).getDataAccess(any(GetDataAccessRequest.class));
+            Thread.sleep(100);
+            AWSCredentials cachedCredentials = refreshAheadCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+            // Then
+            assertThat(cachedCredentials).isSameAs(fetchedCredentials);
+            verify(s3ControlClient, times(2)).getDataAccess(any(GetDataAccessRequest.class));
+        } finally {
+            refreshAheadCache.close();
+        }
+    }
+
+    @Test
+    public void accessGrantsCache_staleWhileRevalidateServesStaleCredentialsWhileRefreshing() {
+        // Given
+        S3AccessGrantsCache staleWhileRevalidateCache = S3AccessGrantsCache.builder()
+                .cacheExpirationTimePercentage(1)
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .enableStaleWhileRevalidate(true)
+                .staleSafetyMarginSeconds(10)
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).buildWithAccountIdResolver();
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenAnswer(invocation -> getDataAccessResponseSetUp("s3://bucket/foo", Duration.ofSeconds(50)));
+        // When
+        AWSCredentials fetchedCredentials = staleWhileRevalidateCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        AWSCredentials staleCredentials = staleWhileRevalidateCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        // Then
+        assertThat(staleCredentials).isSameAs(fetchedCredentials);
+        verify(s3ControlClient, Mockito.timeout(2000).times(2)).getDataAccess(any(GetDataAccessRequest.class));
+    }
+
+    @Test
+    public void accessGrantsCache_staleWhileRevalidateKeepsStaleCredentialsWhenAccessGrantsIsUnavailable() throws Exception {
+        // Given
+        S3AccessGrantsCache staleWhileRevalidateCache = S3AccessGrantsCache.builder()
+                .cacheExpirationTimePercentage(1)
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .enableStaleWhileRevalidate(true)
+                .staleSafetyMarginSeconds(10)
+                .maxCacheSize(DEFAULT_ACCESS_GRANTS_MAX_CACHE_SIZE).buildWithAccountIdResolver();
+        CacheKey key = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar/text.txt").build();
+        AWSS3ControlException serviceUnavailable = new AWSS3ControlException("Service Unavailable");
+        serviceUnavailable.setStatusCode(503);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class)))
+                .thenAnswer(invocation -> getDataAccessResponseSetUp("s3://bucket/foo", Duration.ofSeconds(50)))
+                .thenThrow(serviceUnavailable);
+        // When
+        AWSCredentials fetchedCredentials = staleWhileRevalidateCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        staleWhileRevalidateCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        verify(s3ControlClient, Mockito.timeout(2000).times(2)).getDataAccess(any(GetDataAccessRequest.class));
+        Thread.sleep(100);
+        AWSCredentials staleCredentials = staleWhileRevalidateCache.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache);
+        // Then
+        assertThat(staleCredentials).isSameAs(fetchedCredentials);
+    }
+
+    @Test
+    public void accessGrantsCache_invalidateRemovesOnlyTheGrantServingTheRejectedCredentials() {
+        // Given
+        CacheKey rejectedGrant = CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo").build();
+        CacheKey otherGrant = rejectedGrant.withS3Prefix("s3://bucket/bar");
+        cache.putValueInCache(rejectedGrant, S3_ACCESS_GRANTS_CREDENTIALS, 60);
+        cache.putValueInCache(otherGrant, S3_ACCESS_GRANTS_CREDENTIALS, 60);
+        CacheKey request = rejectedGrant.withS3Prefix("s3://bucket/foo/text.txt");
+        // When
+        boolean refreshedGrantRemoved = cache.invalidate(request, new BasicSessionCredentials("otherAccessKey", SECRET_ACCESS_KEY, SESSION_TOKEN));
+        boolean rejectedGrantRemoved = cache.invalidate(request, S3_ACCESS_GRANTS_CREDENTIALS);
+        // Then
+        assertThat(refreshedGrantRemoved).isFalse();
+        assertThat(rejectedGrantRemoved).isTrue();
+        assertThat(cache.getCache().getIfPresent(rejectedGrant)).isNull();
+        assertThat(cache.getCache().getIfPresent(otherGrant)).isNotNull();
+        assertThat(cache.invalidate(request, S3_ACCESS_GRANTS_CREDENTIALS)).isFalse();
+    }
+
+    private Thread startGetCredentials(CacheKey key, AtomicReference<Object> outcome) {
+        Thread thread = new Thread(() -> {
+            try {
+                outcome.set(cacheWithMockedAccountIdResolver.getCredentials(s3ControlClient, key, TEST_S3_ACCESSGRANTS_ACCOUNT, accessDeniedCache));
+            } catch (RuntimeException e) {
+                outcome.set(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+    }
 }
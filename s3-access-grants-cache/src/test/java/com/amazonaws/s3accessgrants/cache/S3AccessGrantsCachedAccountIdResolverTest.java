@@ -15,6 +15,7 @@
 
 package com.amazonaws.s3accessgrants.cache;
 
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsRateGovernor;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.AWSS3ControlException;
 import com.amazonaws.services.s3control.model.GetAccessGrantsInstanceForPrefixRequest;
@@ -24,6 +25,12 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -33,6 +40,7 @@ import static org.mockito.Mockito.when;
 import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_ACCESSGRANTS_ACCOUNT;
 import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_ACCESSGRANTS_INSTANCE_ARN;
 import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_ACCESSGRANTS_INSTANCE_DEFAULT;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_BUCKET;
 import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_PREFIX;
 import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.TEST_S3_PREFIX_2;
 
@@ -126,4 +134,154 @@ public class S3AccessGrantsCachedAccountIdResolverTest {
         assertThatThrownBy(() -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX)).isInstanceOf(AWSS3ControlException.class);
     }
 
+    @Test
+    public void resolver_ThrottledCall_ReducesTheRate() {
+        // Given
+        S3AccessGrantsRateGovernor rateGovernor = S3AccessGrantsRateGovernor.adaptive(0);
+        S3AccessGrantsCachedAccountIdResolver throttledResolver = S3AccessGrantsCachedAccountIdResolver.builder()
+                .rateGovernor(rateGovernor)
+                .build();
+        AWSS3ControlException throttlingException = new AWSS3ControlException("Rate exceeded");
+        throttlingException.setErrorCode("Throttling");
+        throttlingException.setStatusCode(400);
+        GetAccessGrantsInstanceForPrefixResult response = new GetAccessGrantsInstanceForPrefixResult()
+                .withAccessGrantsInstanceArn(TEST_S3_ACCESSGRANTS_INSTANCE_ARN).withAccessGrantsInstanceId(TEST_S3_ACCESSGRANTS_INSTANCE_DEFAULT);
+        when(s3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenThrow(throttlingException)
+                .thenReturn(response);
+        double initialRate = rateGovernor.rate();
+        // When
+        assertThatThrownBy(() -> throttledResolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX))
+                .isSameAs(throttlingException);
+        double throttledRate = rateGovernor.rate();
+        String accountId = throttledResolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX);
+        // Then
+        assertThat(throttledRate).isEqualTo(initialRate / 2);
+        assertThat(rateGovernor.rate()).isGreaterThan(throttledRate);
+        assertThat(accountId).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+    }
+
+    @Test
+    public void resolver_Caches_ClientError() {
+        // Given
+        AWSS3ControlException notFoundException = new AWSS3ControlException("Access Grants instance not found");
+        notFoundException.setErrorCode("AccessGrantsInstanceNotExistsError");
+        notFoundException.setStatusCode(404);
+        when(s3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenThrow(notFoundException);
+        // When
+        assertThatThrownBy(() -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX))
+                .isSameAs(notFoundException);
+        assertThatThrownBy(() -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX_2))
+                .isSameAs(notFoundException);
+        // Then the second prefix of the bucket is failed without calling the service
+        verify(s3ControlClient, times(1)).getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class));
+    }
+
+    @Test
+    public void resolver_DoesNotShare_AccessDeniedOfAnotherCaller() {
+        // Given
+        AWSS3Control otherS3ControlClient = Mockito.mock(AWSS3Control.class);
+        AWSS3ControlException accessDeniedException = new AWSS3ControlException("Access denied");
+        accessDeniedException.setErrorCode("AccessDenied");
+        accessDeniedException.setStatusCode(403);
+        when(s3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenThrow(accessDeniedException);
+        when(otherS3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenReturn(new GetAccessGrantsInstanceForPrefixResult()
+                        .withAccessGrantsInstanceArn(TEST_S3_ACCESSGRANTS_INSTANCE_ARN).withAccessGrantsInstanceId(TEST_S3_ACCESSGRANTS_INSTANCE_DEFAULT));
+        // When
+        assertThatThrownBy(() -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX))
+                .isSameAs(accessDeniedException);
+        String accountId = resolver.resolve(otherS3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX);
+        // Then the caller with other credentials still reaches the service
+        assertThat(accountId).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        verify(otherS3ControlClient, times(1)).getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class));
+    }
+
+    @Test
+    public void resolver_DoesNotCache_ThrottlingError() {
+        // Given
+        AWSS3ControlException throttlingException = new AWSS3ControlException("Rate exceeded");
+        throttlingException.setErrorCode("Throttling");
+        throttlingException.setStatusCode(400);
+        when(s3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenThrow(throttlingException);
+        // When
+        assertThatThrownBy(() -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX))
+                .isSameAs(throttlingException);
+        assertThatThrownBy(() -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX))
+                .isSameAs(throttlingException);
+        // Then
+        verify(s3ControlClient, times(2)).getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class));
+    }
+
+    @Test
+    public void resolver_PinnedBucket_IsNeverLookedUp() {
+        // Given
+        S3AccessGrantsCachedAccountIdResolver pinnedResolver = S3AccessGrantsCachedAccountIdResolver.builder()
+                .pinnedAccountIds(Collections.singletonMap(TEST_S3_BUCKET, TEST_S3_ACCESSGRANTS_ACCOUNT))
+                .build();
+        // When
+        String accountId = pinnedResolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX);
+        Map<String, String> accountIds = pinnedResolver.resolveAll(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT,
+                Collections.singletonList(TEST_S3_BUCKET));
+        // Then
+        assertThat(accountId).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        assertThat(accountIds.get(TEST_S3_BUCKET)).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        Mockito.verifyNoInteractions(s3ControlClient);
+    }
+
+    @Test
+    public void resolver_ConcurrentMisses_ShareOneCall() throws InterruptedException {
+        // Given
+        CountDownLatch callStarted = new CountDownLatch(1);
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        GetAccessGrantsInstanceForPrefixResult response = new GetAccessGrantsInstanceForPrefixResult()
+                .withAccessGrantsInstanceArn(TEST_S3_ACCESSGRANTS_INSTANCE_ARN).withAccessGrantsInstanceId(TEST_S3_ACCESSGRANTS_INSTANCE_DEFAULT);
+        when(s3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenAnswer(invocation -> {
+                    callStarted.countDown();
+                    releaseCall.await();
+                    return response;
+                });
+        // When
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(
+                () -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX));
+        callStarted.await();
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(
+                () -> resolver.resolve(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT, TEST_S3_PREFIX_2));
+        releaseCall.countDown();
+        // Then
+        assertThat(first.join()).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        assertThat(second.join()).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        verify(s3ControlClient, times(1)).getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class));
+    }
+
+    @Test
+    public void resolver_ResolveAll_SkipsFailedBuckets() {
+        // Given
+        S3AccessGrantsCachedAccountIdResolver bulkResolver = S3AccessGrantsCachedAccountIdResolver.builder()
+                .resolveAllParallelism(2)
+                .build();
+        GetAccessGrantsInstanceForPrefixResult response = new GetAccessGrantsInstanceForPrefixResult()
+                .withAccessGrantsInstanceArn(TEST_S3_ACCESSGRANTS_INSTANCE_ARN).withAccessGrantsInstanceId(TEST_S3_ACCESSGRANTS_INSTANCE_DEFAULT);
+        when(s3ControlClient.getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class)))
+                .thenAnswer(invocation -> {
+                    GetAccessGrantsInstanceForPrefixRequest request = invocation.getArgument(0);
+                    if (request.getS3Prefix().equals("s3://missing-bucket")) {
+                        throw new AWSS3ControlException("Access Grants instance not found");
+                    }
+                    return response;
+                });
+        // When
+        Map<String, String> accountIds = bulkResolver.resolveAll(s3ControlClient, TEST_S3_ACCESSGRANTS_ACCOUNT,
+                Arrays.asList("bucket-a", "bucket-b", "missing-bucket", "bucket-a"));
+        // Then
+        assertThat(accountIds.size()).isEqualTo(2);
+        assertThat(accountIds.get("bucket-a")).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        assertThat(accountIds.get("bucket-b")).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        verify(s3ControlClient, times(3)).getAccessGrantsInstanceForPrefix(any(GetAccessGrantsInstanceForPrefixRequest.class));
+    }
+
 }
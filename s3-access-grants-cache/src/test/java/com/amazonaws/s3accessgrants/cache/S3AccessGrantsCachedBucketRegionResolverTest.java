@@ -26,8 +26,12 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.Mockito.verify;
@@ -35,6 +39,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.times;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 
 public class S3AccessGrantsCachedBucketRegionResolverTest {
     private AmazonS3 s3Client = mock(AmazonS3.class);
@@ -71,6 +77,35 @@ public class S3AccessGrantsCachedBucketRegionResolverTest {
         verify(s3Client, times(2)).headBucket(any(HeadBucketRequest.class));
     }
 
+    @Test
+    public void call_resolve_should_publish_cache_and_head_bucket_metrics() {
+        S3AccessGrantsMetricsPublisher metricsPublisher = mock(S3AccessGrantsMetricsPublisher.class);
+        S3AccessGrantsCachedBucketRegionResolver resolver = S3AccessGrantsCachedBucketRegionResolver.builder()
+                .metricsPublisher(metricsPublisher).build();
+        resolver.resolve(s3Client, TEST_BUCKET_NAME);
+        resolver.resolve(s3Client, TEST_BUCKET_NAME);
+        verify(metricsPublisher, times(1)).cacheMiss(S3AccessGrantsMetricsPublisher.CacheName.BUCKET_REGION);
+        verify(metricsPublisher, times(1)).cacheHit(S3AccessGrantsMetricsPublisher.CacheName.BUCKET_REGION);
+        verify(metricsPublisher, times(1)).cacheLoad(eq(S3AccessGrantsMetricsPublisher.CacheName.BUCKET_REGION), anyLong(), eq(true));
+        verify(metricsPublisher, times(1)).remoteCall(eq(S3AccessGrantsMetricsPublisher.RemoteCall.HEAD_BUCKET), anyLong(), eq(true));
+    }
+
+    @Test
+    public void call_resolve_should_only_request_s3_client_on_cache_miss() {
+        AtomicInteger s3ClientRequests = new AtomicInteger();
+        assertThat(s3AccessGrantsCachedBucketRegionResolver.resolve(() -> {
+            s3ClientRequests.incrementAndGet();
+            return s3Client;
+        }, TEST_BUCKET_NAME)).isEqualTo(Regions.US_EAST_1);
+        assertThat(s3AccessGrantsCachedBucketRegionResolver.resolve(() -> {
+            s3ClientRequests.incrementAndGet();
+            return s3Client;
+        }, TEST_BUCKET_NAME)).isEqualTo(Regions.US_EAST_1);
+        // the client is only needed for the initial head bucket call
+        assertThat(s3ClientRequests.get()).isEqualTo(1);
+        verify(s3Client, times(1)).headBucket(any(HeadBucketRequest.class));
+    }
+
     @Test
     public void verify_bucket_region_cache_expiration() throws InterruptedException {
 
@@ -141,4 +176,119 @@ public class S3AccessGrantsCachedBucketRegionResolverTest {
 
     }
 
+    @Test
+    public void call_bucket_region_cache_caches_missing_bucket() {
+
+        AmazonS3Exception s3Exception = new AmazonS3Exception("Not Found");
+        s3Exception.setStatusCode(404);
+        S3AccessGrantsCachedBucketRegionResolver localS3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder()
+                .expireFailureCacheAfterWriteSeconds(60).build();
+        when(s3Client.headBucket(any(HeadBucketRequest.class))).thenThrow(s3Exception);
+        Assertions.assertThatThrownBy(() -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME))
+                .isInstanceOf(AmazonServiceException.class);
+        Assertions.assertThatThrownBy(() -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME))
+                .isInstanceOf(AmazonServiceException.class);
+        // the failure is remembered, so the second request does not reach the service
+        verify(s3Client, times(1)).headBucket(any(HeadBucketRequest.class));
+
+    }
+
+    @Test
+    public void call_bucket_region_cache_does_not_cache_forbidden_bucket_for_other_callers() {
+
+        AmazonS3Exception s3Exception = new AmazonS3Exception("Forbidden");
+        s3Exception.setStatusCode(403);
+        AmazonS3 otherS3Client = mock(AmazonS3.class);
+        S3AccessGrantsCachedBucketRegionResolver localS3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder()
+                .expireFailureCacheAfterWriteSeconds(60).build();
+        when(s3Client.headBucket(any(HeadBucketRequest.class))).thenThrow(s3Exception);
+        when(otherS3Client.headBucket(any(HeadBucketRequest.class))).thenReturn(new HeadBucketResult().withBucketRegion(Regions.US_EAST_1.getName()));
+        Assertions.assertThatThrownBy(() -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME))
+                .isInstanceOf(AmazonServiceException.class);
+        // access denied belongs to the credentials of the first caller, the second caller still reaches the service
+        assertThat(localS3AccessGrantsCachedBucketRegionResolver.resolve(otherS3Client, TEST_BUCKET_NAME)).isEqualTo(Regions.US_EAST_1);
+        verify(otherS3Client, times(1)).headBucket(any(HeadBucketRequest.class));
+
+    }
+
+    @Test
+    public void call_bucket_region_cache_does_not_cache_server_error() {
+
+        AmazonS3Exception s3Exception = new AmazonS3Exception("Internal Error");
+        s3Exception.setStatusCode(500);
+        S3AccessGrantsCachedBucketRegionResolver localS3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder().build();
+        when(s3Client.headBucket(any(HeadBucketRequest.class))).thenThrow(s3Exception);
+        Assertions.assertThatThrownBy(() -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME))
+                .isInstanceOf(AmazonServiceException.class);
+        Assertions.assertThatThrownBy(() -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME))
+                .isInstanceOf(AmazonServiceException.class);
+        verify(s3Client, times(2)).headBucket(any(HeadBucketRequest.class));
+
+    }
+
+    @Test
+    public void call_resolve_concurrently_makes_one_head_bucket_call() throws InterruptedException {
+
+        CountDownLatch callStarted = new CountDownLatch(1);
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        S3AccessGrantsCachedBucketRegionResolver localS3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder().build();
+        when(s3Client.headBucket(any(HeadBucketRequest.class))).thenAnswer(invocation -> {
+            callStarted.countDown();
+            releaseCall.await();
+            return new HeadBucketResult().withBucketRegion(Regions.US_EAST_1.getName());
+        });
+        CompletableFuture<Regions> first = CompletableFuture.supplyAsync(
+                () -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME));
+        callStarted.await();
+        CompletableFuture<Regions> second = CompletableFuture.supplyAsync(
+                () -> localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME));
+        releaseCall.countDown();
+        assertThat(first.join()).isEqualTo(Regions.US_EAST_1);
+        assertThat(second.join()).isEqualTo(Regions.US_EAST_1);
+        verify(s3Client, times(1)).headBucket(any(HeadBucketRequest.class));
+
+    }
+
+    @Test
+    public void call_resolve_all_returns_regions_of_resolved_buckets() {
+
+        S3AccessGrantsCachedBucketRegionResolver localS3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder()
+                .resolveAllParallelism(2).build();
+        when(s3Client.headBucket(any(HeadBucketRequest.class))).thenAnswer(invocation -> {
+            HeadBucketRequest request = invocation.getArgument(0);
+            if (request.getBucketName().equals("missing-bucket")) {
+                throw new AmazonS3Exception("Bucket does not exist");
+            }
+            return new HeadBucketResult().withBucketRegion(Regions.US_WEST_2.getName());
+        });
+        localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME);
+        Map<String, Regions> bucketRegions = localS3AccessGrantsCachedBucketRegionResolver.resolveAll(() -> s3Client,
+                Arrays.asList(TEST_BUCKET_NAME, "bucket-a", "bucket-b", "missing-bucket", "bucket-a"));
+        assertThat(bucketRegions.size()).isEqualTo(3);
+        assertThat(bucketRegions.get(TEST_BUCKET_NAME)).isEqualTo(Regions.US_WEST_2);
+        assertThat(bucketRegions.get("bucket-a")).isEqualTo(Regions.US_WEST_2);
+        assertThat(bucketRegions.get("bucket-b")).isEqualTo(Regions.US_WEST_2);
+        // the cached bucket is not looked up again
+        verify(s3Client, times(4)).headBucket(any(HeadBucketRequest.class));
+
+    }
+
+    @Test
+    public void call_resolve_uses_learned_region() {
+
+        S3AccessGrantsCachedBucketRegionResolver localS3AccessGrantsCachedBucketRegionResolver = S3AccessGrantsCachedBucketRegionResolver.builder().build();
+        localS3AccessGrantsCachedBucketRegionResolver.learn(TEST_BUCKET_NAME, "eu-west-1");
+        localS3AccessGrantsCachedBucketRegionResolver.learn("other-bucket", "not-a-region");
+        assertThat(localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, TEST_BUCKET_NAME)).isEqualTo(Regions.EU_WEST_1);
+        verify(s3Client, times(0)).headBucket(any(HeadBucketRequest.class));
+        assertThat(localS3AccessGrantsCachedBucketRegionResolver.resolve(s3Client, "other-bucket")).isEqualTo(Regions.US_EAST_1);
+
+    }
+
+    @Test
+    public void call_bucket_region_cache_with_invalid_failure_cache_ttl() {
+        Assertions.assertThatThrownBy(() -> S3AccessGrantsCachedBucketRegionResolver.builder().expireFailureCacheAfterWriteSeconds(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
 }
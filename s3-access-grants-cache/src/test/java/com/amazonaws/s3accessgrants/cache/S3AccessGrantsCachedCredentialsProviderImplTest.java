@@ -18,6 +18,8 @@ package com.amazonaws.s3accessgrants.cache;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSSessionCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.Credentials;
 import com.amazonaws.services.s3control.model.GetDataAccessRequest;
@@ -27,13 +29,26 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Date;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.ACCESS_KEY_ID;
@@ -95,6 +110,31 @@ public class S3AccessGrantsCachedCredentialsProviderImplTest {
 
     }
 
+    @Test
+    public void cachedCredentialsProvider_defaultGetDataAccessAsyncCallsGetDataAccess() {
+        // Given
+        S3AccessGrantsCachedCredentialsProvider provider = mock(S3AccessGrantsCachedCredentialsProvider.class, Mockito.CALLS_REAL_METHODS);
+        when(provider.getDataAccess(s3ControlClient, AWS_SESSION_CREDENTIALS, Permission.READ, "s3://bucket2/foo/bar", TEST_S3_ACCESSGRANTS_ACCOUNT))
+                .thenReturn(AWS_SESSION_CREDENTIALS);
+        // When
+        AWSCredentials credentialsIdentity = provider.getDataAccessAsync(s3ControlClient, AWS_SESSION_CREDENTIALS, Permission.READ,
+                "s3://bucket2/foo/bar", TEST_S3_ACCESSGRANTS_ACCOUNT).join();
+        // Then
+        assertThat(credentialsIdentity).isSameAs(AWS_SESSION_CREDENTIALS);
+    }
+
+    @Test
+    public void cachedCredentialsProvider_defaultGetBucketRegionWithSupplierDelegates() {
+        // Given
+        S3AccessGrantsCachedCredentialsProvider provider = mock(S3AccessGrantsCachedCredentialsProvider.class, Mockito.CALLS_REAL_METHODS);
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        when(provider.getBucketRegion(s3Client, "bucket2")).thenReturn(Regions.US_WEST_2);
+        // When
+        Regions bucketRegion = provider.getBucketRegion(() -> s3Client, "bucket2");
+        // Then
+        assertThat(bucketRegion).isEqualTo(Regions.US_WEST_2);
+    }
+
     @Test
     public void cacheImpl_cacheMiss() {
         // Given
@@ -108,4 +148,155 @@ public class S3AccessGrantsCachedCredentialsProviderImplTest {
 
     }
 
+    @Test
+    public void cacheImpl_snapshotRoundTrip() throws IOException {
+        // Given
+        GetDataAccessResult getDataAccessResponse = getDataAccessResponseSetUp("s3://bucket2/foo/*");
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(s3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenReturn(getDataAccessResponse);
+        cacheWithMockedAccountIdResolver.getDataAccess(s3ControlClient, AWS_SESSION_CREDENTIALS, Permission.READ, "s3://bucket2/foo/bar", TEST_S3_ACCESSGRANTS_ACCOUNT);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        // When
+        cacheWithMockedAccountIdResolver.snapshot(10).writeTo(outputStream);
+        S3AccessGrantsCacheSnapshot snapshot = S3AccessGrantsCacheSnapshot.readFrom(new ByteArrayInputStream(outputStream.toByteArray()));
+        // Then
+        assertThat(snapshot.getGrants().size()).isEqualTo(1);
+        S3AccessGrantsCacheSnapshot.Grant grant = snapshot.getGrants().get(0);
+        assertThat(grant.getAccessKeyId()).isEqualTo(AWS_SESSION_CREDENTIALS.getAWSAccessKeyId());
+        assertThat(grant.getPermission()).isEqualTo(Permission.READ);
+        assertThat(grant.getS3Prefix()).isEqualTo("s3://bucket2/foo/bar");
+        assertThat(grant.getAccountId()).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        assertThat(new String(outputStream.toByteArray())).doesNotContain(AWS_SESSION_CREDENTIALS.getAWSSecretKey());
+    }
+
+    @Test
+    public void cacheImpl_concurrentSnapshotWritesLeaveACompleteSnapshot() throws Exception {
+        // Given
+        Path directory = Files.createTempDirectory("s3-access-grants-snapshot");
+        Path snapshotFile = directory.resolve("snapshot");
+        S3AccessGrantsCacheSnapshot snapshot = new S3AccessGrantsCacheSnapshot(Collections.singletonMap("bucket2", TEST_S3_ACCESSGRANTS_ACCOUNT),
+                Collections.singletonMap("bucket2", Regions.US_WEST_2), Collections.emptyList());
+        // When
+        CompletableFuture<?>[] writers = new CompletableFuture<?>[4];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    snapshot.writeTo(snapshotFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        CompletableFuture.allOf(writers).join();
+        // Then
+        assertThat(S3AccessGrantsCacheSnapshot.readFrom(snapshotFile).getBucketRegions().get("bucket2")).isEqualTo(Regions.US_WEST_2);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.count()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void cacheImpl_truncatedOrCorruptSnapshotFailsWithIOException() throws IOException {
+        // Given
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new S3AccessGrantsCacheSnapshot(Collections.singletonMap("bucket2", TEST_S3_ACCESSGRANTS_ACCOUNT),
+                Collections.singletonMap("bucket2", Regions.US_WEST_2), Collections.emptyList()).writeTo(outputStream);
+        byte[] snapshot = outputStream.toByteArray();
+        byte[] truncatedSnapshot = Arrays.copyOf(snapshot, snapshot.length - 3);
+        byte[] corruptSnapshot = Arrays.copyOf(snapshot, 12);
+        Arrays.fill(corruptSnapshot, 8, 12, (byte) 0xFF);
+        // When
+        Throwable truncatedFailure = readFailure(truncatedSnapshot);
+        Throwable corruptFailure = readFailure(corruptSnapshot);
+        Throwable garbageFailure = readFailure("not a snapshot".getBytes());
+        // Then
+        assertThat(truncatedFailure).isInstanceOf(IOException.class);
+        assertThat(corruptFailure).isInstanceOf(IOException.class);
+        assertThat(garbageFailure).isInstanceOf(IOException.class);
+    }
+
+    private Throwable readFailure(byte[] snapshot) {
+        try {
+            S3AccessGrantsCacheSnapshot.readFrom(new ByteArrayInputStream(snapshot));
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    @Test
+    public void cacheImpl_restoreSeedsResolvers() {
+        // Given
+        cache.restore(new S3AccessGrantsCacheSnapshot(Collections.singletonMap("bucket2", TEST_S3_ACCESSGRANTS_ACCOUNT),
+                Collections.singletonMap("bucket2", Regions.US_WEST_2), Collections.emptyList()));
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        // When
+        Regions region = cache.getBucketRegion(s3Client, "bucket2");
+        S3AccessGrantsCacheSnapshot snapshot = cache.snapshot(10);
+        // Then
+        assertThat(region).isEqualTo(Regions.US_WEST_2);
+        Mockito.verifyNoInteractions(s3Client);
+        assertThat(snapshot.getBucketAccountIds().get("bucket2")).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+    }
+
+    @Test
+    public void cacheImpl_pinnedBucketsAreNeverLookedUp() throws IOException {
+        // Given
+        S3AccessGrantsPinnedBuckets pinnedBuckets = S3AccessGrantsPinnedBuckets.readFrom(new StringReader(
+                "data.lake.bucket.accountId=" + TEST_S3_ACCESSGRANTS_ACCOUNT + "\n" +
+                "data.lake.bucket.region=eu-west-1\n"));
+        S3AccessGrantsCachedCredentialsProviderImpl pinnedCache = S3AccessGrantsCachedCredentialsProviderImpl.builder()
+                .pinnedBuckets(pinnedBuckets)
+                .build();
+        AmazonS3 s3Client = mock(AmazonS3.class);
+        // When
+        Regions region = pinnedCache.getBucketRegion(s3Client, "data.lake.bucket");
+        pinnedCache.learnBucketRegion("data.lake.bucket", "us-east-1");
+        // Then
+        assertThat(pinnedBuckets.getBucketAccountIds().get("data.lake.bucket")).isEqualTo(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        assertThat(region).isEqualTo(Regions.EU_WEST_1);
+        assertThat(pinnedCache.getBucketRegion(s3Client, "data.lake.bucket")).isEqualTo(Regions.EU_WEST_1);
+        Mockito.verifyNoInteractions(s3Client);
+        // pinned entries are not part of snapshots, they are configured again on every start
+        assertThat(pinnedCache.snapshot(10).getBucketRegions().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void cacheImpl_prewarmFetchesPrefixesUnderTheSameGrantOnce() {
+        // Given
+        AWSS3Control prewarmS3ControlClient = mock(AWSS3Control.class);
+        when(mockResolver.resolve(any(AWSS3Control.class), any(String.class), any(String.class))).thenReturn(TEST_S3_ACCESSGRANTS_ACCOUNT);
+        when(prewarmS3ControlClient.getDataAccess(any(GetDataAccessRequest.class))).thenReturn(getDataAccessResponseSetUp("s3://bucket3/foo/*"));
+        // When
+        int warmed = cacheWithMockedAccountIdResolver.prewarm(bucket -> prewarmS3ControlClient, AWS_SESSION_CREDENTIALS,
+                Arrays.asList(PrefixPermission.of("s3://bucket3/foo/a.txt", Permission.READ),
+                        PrefixPermission.of("s3://bucket3/foo/b.txt", Permission.READ),
+                        PrefixPermission.of("s3://bucket3/foo/a.txt", Permission.READ)),
+                TEST_S3_ACCESSGRANTS_ACCOUNT).join();
+        // Then
+        assertThat(warmed).isEqualTo(2);
+        verify(prewarmS3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+        cacheWithMockedAccountIdResolver.getDataAccess(prewarmS3ControlClient, AWS_SESSION_CREDENTIALS, Permission.READ, "s3://bucket3/foo/c.txt",
+                TEST_S3_ACCESSGRANTS_ACCOUNT);
+        verify(prewarmS3ControlClient, times(1)).getDataAccess(any(GetDataAccessRequest.class));
+    }
+
+    @Test
+    public void cacheImpl_prewarmOfClosedProviderSkipsEveryPrefix() {
+        // Given
+        S3AccessGrantsCachedCredentialsProviderImpl closedProvider = S3AccessGrantsCachedCredentialsProviderImpl.builder()
+                .s3AccessGrantsCachedAccountIdResolver(mockResolver)
+                .buildWithAccountIdResolver();
+        AWSS3Control prewarmS3ControlClient = mock(AWSS3Control.class);
+        closedProvider.close();
+        // When
+        int warmed = closedProvider.prewarm(bucket -> prewarmS3ControlClient, AWS_SESSION_CREDENTIALS,
+                Arrays.asList(PrefixPermission.of("s3://bucket3/foo/a.txt", Permission.READ),
+                        PrefixPermission.of("s3://bucket4/foo/b.txt", Permission.READ)),
+                TEST_S3_ACCESSGRANTS_ACCOUNT).join();
+        // Then
+        assertThat(warmed).isEqualTo(0);
+        Mockito.verifyNoInteractions(prewarmS3ControlClient);
+    }
+
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class S3AccessGrantsExecutorsTest {
+    private static final String JAVA21_EXECUTORS_CLASS =
+            "META-INF/versions/21/com/amazonaws/s3accessgrants/cache/internal/S3AccessGrantsExecutors.class";
+
+    @Test
+    public void executors_java21VersionIsCompiledOnJava21() {
+        // Given
+        Assume.assumeTrue(javaFeatureVersion() >= 21);
+        // Then
+        assertThat(S3AccessGrantsExecutors.class.getClassLoader().getResource(JAVA21_EXECUTORS_CLASS)).isNotNull();
+    }
+
+    @Test
+    public void executors_threadFactoryCreatesDaemonThreads() {
+        // When
+        Thread thread = S3AccessGrantsExecutors.threadFactory("s3-access-grants-test").newThread(() -> { });
+        // Then
+        assertThat(thread.isDaemon()).isTrue();
+        assertThat(thread.getName()).isEqualTo("s3-access-grants-test");
+    }
+
+    @Test
+    public void executors_newExecutorRunsOnItsOwnDaemonThreads() throws Exception {
+        // Given
+        ExecutorService executor = S3AccessGrantsExecutors.newExecutor("s3-access-grants-test");
+        try {
+            // When
+            Thread thread = CompletableFuture.supplyAsync(Thread::currentThread, executor).get(5, TimeUnit.SECONDS);
+            // Then
+            assertThat(thread.isDaemon()).isTrue();
+            assertThat(thread.getName()).startsWith("s3-access-grants-test-");
+            assertThat(thread).isNotInstanceOf(ForkJoinWorkerThread.class);
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static int javaFeatureVersion() {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+}
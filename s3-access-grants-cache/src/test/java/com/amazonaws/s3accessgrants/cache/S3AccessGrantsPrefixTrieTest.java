@@ -0,0 +1,129 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3control.model.Permission;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.AWS_BASIC_CREDENTIALS;
+import static com.amazonaws.s3accessgrants.cache.S3AccessGrantsTestConstants.AWS_SESSION_CREDENTIALS;
+
+public class S3AccessGrantsPrefixTrieTest {
+    private S3AccessGrantsPrefixTrie trie;
+
+    @Before
+    public void setup() {
+        trie = new S3AccessGrantsPrefixTrie();
+    }
+
+    private static CacheKey key(Permission permission, String s3Prefix) {
+        return CacheKey.builder()
+                .credentials(AWS_BASIC_CREDENTIALS)
+                .permission(permission)
+                .s3Prefix(s3Prefix).build();
+    }
+
+    @Test
+    public void prefixTrie_findsLongestPrefixOnSegmentBoundary() {
+        // Given
+        CacheKey bucketKey = key(Permission.READ, "s3://bucket");
+        CacheKey fooKey = key(Permission.READ, "s3://bucket/foo");
+        trie.put(bucketKey);
+        trie.put(fooKey);
+        // Then
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo/bar.txt"))).isEqualTo(fooKey);
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo"))).isEqualTo(fooKey);
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foobar.txt"))).isEqualTo(bucketKey);
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket2/foo"))).isNull();
+    }
+
+    @Test
+    public void prefixTrie_findsWildcardKeyAtCharacterLevel() {
+        // Given
+        CacheKey wildcardKey = key(Permission.READ, "s3://bucket/foo*");
+        trie.put(wildcardKey);
+        // Then
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foobar/text.txt"))).isEqualTo(wildcardKey);
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo"))).isEqualTo(wildcardKey);
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/fo"))).isNull();
+    }
+
+    @Test
+    public void prefixTrie_prefersRequestedPermissionAndPrefixLevelKeys() {
+        // Given
+        CacheKey readWriteKey = key(Permission.READWRITE, "s3://bucket/foo/bar");
+        CacheKey readKey = key(Permission.READ, "s3://bucket/foo");
+        CacheKey wildcardKey = key(Permission.READ, "s3://bucket/foo/bar/text*");
+        trie.put(readWriteKey);
+        trie.put(readKey);
+        trie.put(wildcardKey);
+        // Then
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo/bar/text.txt"))).isEqualTo(readKey);
+        assertThat(trie.findCoveringKey(key(Permission.WRITE, "s3://bucket/foo/bar/text.txt"))).isEqualTo(readWriteKey);
+        assertThat(trie.findCoveringKey(key(Permission.READWRITE, "s3://bucket/foo/baz.txt"))).isNull();
+    }
+
+    @Test
+    public void prefixTrie_matchesSameIdentityOnly() {
+        // Given
+        CacheKey fooKey = key(Permission.READ, "s3://bucket/foo");
+        trie.put(fooKey);
+        CacheKey sameIdentity = CacheKey.builder()
+                .credentials(AWS_SESSION_CREDENTIALS)
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar.txt").build();
+        CacheKey otherIdentity = CacheKey.builder()
+                .credentials(new BasicAWSCredentials("otherAccessKey", "otherSecretAccessKey"))
+                .permission(Permission.READ)
+                .s3Prefix("s3://bucket/foo/bar.txt").build();
+        // Then
+        assertThat(trie.findCoveringKey(sameIdentity)).isEqualTo(fooKey);
+        assertThat(trie.findCoveringKey(otherIdentity)).isNull();
+    }
+
+    @Test
+    public void prefixTrie_removeIfNotCached_keepsKeysCachedAgain() {
+        // Given
+        CacheKey fooKey = key(Permission.READ, "s3://bucket/foo");
+        trie.put(fooKey);
+        // When
+        trie.removeIfNotCached(fooKey, Collections.singletonMap(fooKey, "credentials"));
+        // Then
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo/bar/text.txt"))).isEqualTo(fooKey);
+    }
+
+    @Test
+    public void prefixTrie_removeAndClear() {
+        // Given
+        CacheKey fooKey = key(Permission.READ, "s3://bucket/foo");
+        CacheKey fooBarKey = key(Permission.READ, "s3://bucket/foo/bar");
+        trie.put(fooKey);
+        trie.put(fooBarKey);
+        // When
+        trie.remove(fooBarKey);
+        // Then
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo/bar/text.txt"))).isEqualTo(fooKey);
+        // When
+        trie.clear();
+        // Then
+        assertThat(trie.findCoveringKey(key(Permission.READ, "s3://bucket/foo/bar/text.txt"))).isNull();
+    }
+}
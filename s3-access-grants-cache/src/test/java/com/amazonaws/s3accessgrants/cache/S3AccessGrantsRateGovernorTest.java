@@ -0,0 +1,93 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsRateGovernor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class S3AccessGrantsRateGovernorTest {
+    private static final int CONCURRENT_CALLS = 8;
+
+    @Test
+    public void rateGovernor_concurrentThrottles_decreaseTheRateOnce() throws Exception {
+        // Given
+        S3AccessGrantsRateGovernor rateGovernor = S3AccessGrantsRateGovernor.adaptive(0);
+        double initialRate = rateGovernor.rate();
+        CountDownLatch allCallsStarted = new CountDownLatch(CONCURRENT_CALLS);
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_CALLS);
+        List<CompletableFuture<Object>> calls = new ArrayList<>();
+        try {
+            // When
+            for (int i = 0; i < CONCURRENT_CALLS; i++) {
+                calls.add(CompletableFuture.supplyAsync(() -> rateGovernor.call(() -> {
+                    allCallsStarted.countDown();
+                    awaitQuietly(allCallsStarted);
+                    throw throttlingException();
+                }), executor));
+            }
+            for (CompletableFuture<Object> call : calls) {
+                assertThatThrownBy(call::join).hasCauseInstanceOf(AmazonServiceException.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Then the calls throttled together halve the rate once
+        assertThat(rateGovernor.rate()).isEqualTo(initialRate / 2);
+    }
+
+    @Test
+    public void rateGovernor_callOverTheRate_isMadeOnceTheDeadlineHasPassed() {
+        // Given
+        S3AccessGrantsRateGovernor rateGovernor = S3AccessGrantsRateGovernor.adaptive(0);
+        assertThatThrownBy(() -> rateGovernor.call(() -> {
+            throw throttlingException();
+        })).isInstanceOf(AmazonServiceException.class);
+        // When more calls are made than the reduced rate allows
+        int callsMade = 0;
+        for (int i = 0; i < rateGovernor.rate() * 2; i++) {
+            callsMade += rateGovernor.call(() -> 1);
+        }
+        // Then none of them is failed on the client side
+        assertThat(callsMade).isGreaterThan((int) rateGovernor.rate());
+    }
+
+    private static AmazonServiceException throttlingException() {
+        AmazonServiceException throttlingException = new AmazonServiceException("Rate exceeded");
+        throttlingException.setErrorCode("Throttling");
+        throttlingException.setStatusCode(400);
+        return throttlingException;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
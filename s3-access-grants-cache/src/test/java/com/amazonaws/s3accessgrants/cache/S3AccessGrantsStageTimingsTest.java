@@ -0,0 +1,68 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.s3accessgrants.cache;
+
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings.Snapshot;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings.Stage;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsLatencyHistogram;
+import org.junit.Test;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+
+public class S3AccessGrantsStageTimingsTest {
+
+    @Test
+    public void stageTimings_reportsPercentilesWithinHistogramPrecision() {
+        // Given
+        S3AccessGrantsLatencyHistogram histogram = new S3AccessGrantsLatencyHistogram();
+        // When
+        for (long latency = 1_000; latency <= 1_000_000; latency += 1_000) {
+            histogram.record(latency);
+        }
+        // Then
+        long[] counts = histogram.counts();
+        assertThat(S3AccessGrantsLatencyHistogram.valueAtPercentile(counts, 1_000, 50)).isBetween(500_000L, 540_000L);
+        assertThat(S3AccessGrantsLatencyHistogram.valueAtPercentile(counts, 1_000, 99)).isBetween(990_000L, 1_070_000L);
+        assertThat(S3AccessGrantsLatencyHistogram.valueAtPercentile(counts, 1_000, 99.9)).isBetween(999_000L, 1_080_000L);
+    }
+
+    @Test
+    public void stageTimings_recordsTheTimeElapsedPerStage() {
+        // Given
+        S3AccessGrantsStageTimings stageTimings = S3AccessGrantsStageTimings.enabled();
+        // When
+        for (long latency = 1_000; latency <= 1_000_000; latency += 1_000) {
+            stageTimings.record(Stage.GET_DATA_ACCESS, System.nanoTime() - latency);
+        }
+        // Then
+        Snapshot snapshot = stageTimings.snapshot(Stage.GET_DATA_ACCESS);
+        assertThat(snapshot.getCount()).isEqualTo(1_000L);
+        assertThat(snapshot.getP50Nanos()).isGreaterThanOrEqualTo(500_000L);
+        assertThat(snapshot.getP999Nanos()).isGreaterThanOrEqualTo(snapshot.getP50Nanos());
+        assertThat(stageTimings.snapshot(Stage.CACHE_PROBE).getCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void stageTimings_disabledRecordsNothing() {
+        // Given
+        S3AccessGrantsStageTimings stageTimings = S3AccessGrantsStageTimings.DISABLED;
+        // When
+        long start = stageTimings.start();
+        stageTimings.record(Stage.CACHE_PROBE, start);
+        // Then
+        assertThat(start).isEqualTo(0L);
+        assertThat(stageTimings.snapshot(Stage.CACHE_PROBE).getCount()).isEqualTo(0L);
+    }
+}
@@ -30,4 +30,11 @@ public class S3AccessGrantsUtilTest {
         // Then
         assertThat(bucketName).isEqualTo(TEST_S3_BUCKET);
     }
+
+    @Test
+    public void getBucketName_from_bucket_level_s3Prefix() {
+        assertThat(getBucketName("s3://" + TEST_S3_BUCKET)).isEqualTo(TEST_S3_BUCKET);
+        assertThat(getBucketName("s3://" + TEST_S3_BUCKET + "/")).isEqualTo(TEST_S3_BUCKET);
+        assertThat(getBucketName("s3://" + TEST_S3_BUCKET + "/*")).isEqualTo(TEST_S3_BUCKET);
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.plugin;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+
+/**
+ * Request handler which learns the regions of buckets from the responses of the S3 client it is registered with. S3
+ * returns the region of a bucket in the x-amz-bucket-region header of many responses, and of the redirect and region
+ * mismatch errors a request sent to the wrong region fails with. Every region observed is fed into the bucket region
+ * cache of the S3AccessGrantsRequestHandler the learner was created by, so that cross-region requests do not need a
+ * HeadBucket call to find the region of buckets the application already accesses. Learning a region never fails the
+ * request it was observed on.
+ */
+public final class S3AccessGrantsBucketRegionLearner extends RequestHandler2 {
+    static final String BUCKET_REGION_HEADER = "x-amz-bucket-region";
+    private static final Log logger = LogFactory.getLog(S3AccessGrantsBucketRegionLearner.class);
+
+    private final S3AccessGrantsRequestHandler requestHandler;
+
+    S3AccessGrantsBucketRegionLearner(S3AccessGrantsRequestHandler requestHandler) {
+        this.requestHandler = requestHandler;
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        if (response != null) {
+            learn(request, getBucketRegion(response.getHttpResponse()));
+        }
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        String bucketRegion = response == null ? null : getBucketRegion(response.getHttpResponse());
+        if (bucketRegion == null && e instanceof AmazonS3Exception) {
+            bucketRegion = getBucketRegion(((AmazonS3Exception) e).getAdditionalDetails());
+        }
+        if (bucketRegion == null && e instanceof AmazonServiceException) {
+            bucketRegion = getBucketRegion(((AmazonServiceException) e).getHttpHeaders());
+        }
+        learn(request, bucketRegion);
+    }
+
+    private void learn(Request<?> request, String bucketRegion) {
+        if (bucketRegion != null && request != null) {
+            try {
+                requestHandler.learnBucketRegion(request.getOriginalRequest(), bucketRegion);
+            } catch (RuntimeException e) {
+                logger.debug("Unable to learn the bucket region " + bucketRegion + " from the response: " + e);
+            }
+        }
+    }
+
+    private static String getBucketRegion(HttpResponse httpResponse) {
+        return httpResponse == null ? null : httpResponse.getHeader(BUCKET_REGION_HEADER);
+    }
+
+    private static String getBucketRegion(Map<String, String> details) {
+        return details == null ? null : details.get(BUCKET_REGION_HEADER);
+    }
+}
@@ -22,24 +22,50 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.s3accessgrants.cache.PrefixPermission;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsCacheSnapshot;
 import com.amazonaws.s3accessgrants.cache.S3AccessGrantsCachedCredentialsProviderImpl;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.CacheName;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.FallbackReason;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsMetricsPublisher.RemoteCall;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsPinnedBuckets;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings.Stage;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsExecutors;
+import com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsMetrics;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsClientPool;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsOperation;
 import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsStaticOperationDetails;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3control.AWSS3Control;
-import com.amazonaws.services.s3control.AWSS3ControlClientBuilder;
 import com.amazonaws.services.s3control.model.Permission;
 import com.amazonaws.services.s3control.model.Privilege;
 import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsUtils;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
 import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
 import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-public class S3AccessGrantsRequestHandler {
+import static com.amazonaws.s3accessgrants.cache.internal.S3AccessGrantsCacheUtils.getBucketName;
+
+public class S3AccessGrantsRequestHandler implements AutoCloseable {
     private final boolean enableFallback;
     private final Privilege privilege;
     private final int duration;
@@ -51,10 +77,30 @@ public class S3AccessGrantsRequestHandler {
     private S3AccessGrantsCachedCredentialsProviderImpl cacheImpl;
     private static final Log logger = LogFactory.getLog(S3AccessGrantsRequestHandler.class);
     private final boolean enableCrossRegionAccess;
-    private ConcurrentHashMap<Regions, AWSS3Control> clientsCache = new ConcurrentHashMap<>();
-    private ClientConfiguration clientConfiguration = new ClientConfiguration().withUserAgentPrefix("aws-s3-accessgrants-java-sdk-v1-plugin");
+    private final ClientConfiguration clientConfiguration = newClientConfiguration();
+    private final S3AccessGrantsClientPool clientPool;
+    private final Supplier<AmazonS3> headBucketClientSupplier = this::getHeadBucketClient;
+    private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+    private S3AccessGrantsStageTimings stageTimings = S3AccessGrantsStageTimings.DISABLED;
+    private Path snapshotFile;
+    private ScheduledThreadPoolExecutor snapshotExecutor;
+    private final Cache<String, String> callerAccountIdCache = Caffeine.newBuilder()
+            .maximumSize(S3AccessGrantsUtils.CALLER_ACCOUNT_ID_CACHE_SIZE)
+            .expireAfterWrite(Duration.ofSeconds(S3AccessGrantsUtils.CALLER_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS))
+            .removalListener((String key, String value, RemovalCause cause) -> {
+                if (cause.wasEvicted()) {
+                    metricsPublisher.cacheEviction(CacheName.CALLER_ACCOUNT_ID);
+                }
+            })
+            .build();
 
-    private S3AccessGrantsRequestHandler(boolean enableFallback, Privilege privilege, int duration, AWSCredentialsProvider credentialsProvider, Regions region, Boolean enableCrossRegionAccess) {
+    private S3AccessGrantsRequestHandler(boolean enableFallback, Privilege privilege, int duration, AWSCredentialsProvider credentialsProvider, Regions region, Boolean enableCrossRegionAccess,
+                                         boolean enableRefreshAhead, S3AccessGrantsMetricsPublisher metricsPublisher,
+                                         boolean enableStageTimings, Path snapshotFile, int snapshotIntervalSeconds,
+                                         boolean enableAdaptiveThrottling, int throttlingDeadlineMillis,
+                                         boolean enableStaleWhileRevalidate, int staleSafetyMarginSeconds,
+                                         int accessDeniedCacheExpireAfterWriteSeconds, int negativeCacheExpireAfterWriteSeconds,
+                                         S3AccessGrantsPinnedBuckets pinnedBuckets) {
         this.enableFallback = enableFallback;
         this.privilege = privilege;
         this.duration = duration;
@@ -62,15 +108,42 @@ public class S3AccessGrantsRequestHandler {
         this.region = region;
         this.stsClient = AWSSecurityTokenServiceClientBuilder.standard()
                 .withCredentials(credentialsProvider)
-                .withRegion(Regions.US_EAST_2)
+                .withRegion(region != null ? region : Regions.US_EAST_2)
                 .withClientConfiguration(clientConfiguration)
                 .build();
+        this.stageTimings = enableStageTimings ? S3AccessGrantsStageTimings.enabled() : S3AccessGrantsStageTimings.DISABLED;
         this.cacheImpl = S3AccessGrantsCachedCredentialsProviderImpl.builder()
-                .duration(duration).build();
+                .duration(duration)
+                .enableRefreshAhead(enableRefreshAhead)
+                .metricsPublisher(metricsPublisher)
+                .stageTimings(stageTimings)
+                .enableAdaptiveThrottling(enableAdaptiveThrottling)
+                .throttlingDeadlineMillis(throttlingDeadlineMillis)
+                .enableStaleWhileRevalidate(enableStaleWhileRevalidate)
+                .staleSafetyMarginSeconds(staleSafetyMarginSeconds)
+                .accessDeniedCacheExpireAfterWriteSeconds(accessDeniedCacheExpireAfterWriteSeconds)
+                .negativeCacheExpireAfterWriteSeconds(negativeCacheExpireAfterWriteSeconds)
+                .pinnedBuckets(pinnedBuckets).build();
         this.enableCrossRegionAccess = enableCrossRegionAccess;
+        this.metricsPublisher = metricsPublisher;
+        // With adaptive throttling the calls to Access Grants are slowed down by the rate governor, retrying them would add
+        // to the throttling.
+        this.clientPool = enableAdaptiveThrottling ? new S3AccessGrantsClientPool(clientConfiguration, false)
+                : new S3AccessGrantsClientPool(clientConfiguration);
+        if (snapshotFile != null) {
+            this.snapshotFile = snapshotFile;
+            this.snapshotExecutor = new ScheduledThreadPoolExecutor(1, S3AccessGrantsExecutors.threadFactory("s3-access-grants-snapshot"));
+            restoreSnapshot();
+            snapshotExecutor.scheduleWithFixedDelay(this::writeSnapshot, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
     }
 
     S3AccessGrantsRequestHandler(AWSS3Control awsS3ControlClient, boolean enableFallback, boolean enableCrossRegionAccess, AWSCredentialsProvider credentialsProvider, Regions region, AWSSecurityTokenService stsClient, S3AccessGrantsCachedCredentialsProviderImpl cacheImpl, S3AccessGrantsStaticOperationDetails operationDetails) {
+        this(awsS3ControlClient, enableFallback, enableCrossRegionAccess, credentialsProvider, region, stsClient, cacheImpl, operationDetails,
+                new S3AccessGrantsClientPool(newClientConfiguration()));
+    }
+
+    S3AccessGrantsRequestHandler(AWSS3Control awsS3ControlClient, boolean enableFallback, boolean enableCrossRegionAccess, AWSCredentialsProvider credentialsProvider, Regions region, AWSSecurityTokenService stsClient, S3AccessGrantsCachedCredentialsProviderImpl cacheImpl, S3AccessGrantsStaticOperationDetails operationDetails, S3AccessGrantsClientPool clientPool) {
         this.enableFallback = enableFallback;
         this.privilege = Privilege.Default;
         this.duration = 3600;
@@ -81,11 +154,11 @@ public class S3AccessGrantsRequestHandler {
         this.cacheImpl = cacheImpl;
         this.operationDetails = operationDetails;
         this.enableCrossRegionAccess = enableCrossRegionAccess;
+        this.clientPool = clientPool;
     }
 
-    S3AccessGrantsRequestHandler(AWSS3Control awsS3ControlClient, boolean enableFallback, boolean enableCrossRegionAccess, AWSCredentialsProvider credentialsProvider, Regions region, AWSSecurityTokenService stsClient, S3AccessGrantsCachedCredentialsProviderImpl cacheImpl, S3AccessGrantsStaticOperationDetails operationDetails, ConcurrentHashMap<Regions, AWSS3Control> clientsCache) {
-        this(awsS3ControlClient,enableFallback, enableCrossRegionAccess, credentialsProvider, region, stsClient, cacheImpl, operationDetails);
-        this.clientsCache = clientsCache;
+    private static ClientConfiguration newClientConfiguration() {
+        return new ClientConfiguration().withUserAgentPrefix("aws-s3-accessgrants-java-sdk-v1-plugin");
     }
 
     public static S3AccessGrantsRequestHandler.Builder builder() {
@@ -100,6 +173,18 @@ public class S3AccessGrantsRequestHandler {
         S3AccessGrantsRequestHandler.Builder duration(int duration);
         S3AccessGrantsRequestHandler.Builder credentialsProvider(AWSCredentialsProvider credentialsProvider);
         S3AccessGrantsRequestHandler.Builder region(Regions region);
+        S3AccessGrantsRequestHandler.Builder enableRefreshAhead(boolean enableRefreshAhead);
+        S3AccessGrantsRequestHandler.Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher);
+        S3AccessGrantsRequestHandler.Builder enableStageTimings(boolean enableStageTimings);
+        S3AccessGrantsRequestHandler.Builder snapshotFile(Path snapshotFile);
+        S3AccessGrantsRequestHandler.Builder snapshotIntervalSeconds(int snapshotIntervalSeconds);
+        S3AccessGrantsRequestHandler.Builder enableAdaptiveThrottling(boolean enableAdaptiveThrottling);
+        S3AccessGrantsRequestHandler.Builder throttlingDeadlineMillis(int throttlingDeadlineMillis);
+        S3AccessGrantsRequestHandler.Builder enableStaleWhileRevalidate(boolean enableStaleWhileRevalidate);
+        S3AccessGrantsRequestHandler.Builder staleSafetyMarginSeconds(int staleSafetyMarginSeconds);
+        S3AccessGrantsRequestHandler.Builder accessDeniedCacheExpireAfterWriteSeconds(int accessDeniedCacheExpireAfterWriteSeconds);
+        S3AccessGrantsRequestHandler.Builder negativeCacheExpireAfterWriteSeconds(int negativeCacheExpireAfterWriteSeconds);
+        S3AccessGrantsRequestHandler.Builder pinnedBuckets(S3AccessGrantsPinnedBuckets pinnedBuckets);
     }
 
     static final class BuilderImpl implements S3AccessGrantsRequestHandler.Builder {
@@ -109,10 +194,25 @@ public class S3AccessGrantsRequestHandler {
         private int duration = S3AccessGrantsUtils.DEFAULT_DURATION;
         private AWSCredentialsProvider credentialsProvider;
         private Regions region;
+        private boolean enableRefreshAhead = S3AccessGrantsUtils.DEFAULT_REFRESH_AHEAD;
+        private S3AccessGrantsMetricsPublisher metricsPublisher = S3AccessGrantsMetricsPublisher.NO_OP;
+        private boolean enableStageTimings = S3AccessGrantsUtils.DEFAULT_STAGE_TIMINGS;
+        private Path snapshotFile;
+        private int snapshotIntervalSeconds = S3AccessGrantsUtils.DEFAULT_SNAPSHOT_INTERVAL_SECONDS;
+        private boolean enableAdaptiveThrottling = S3AccessGrantsUtils.DEFAULT_ADAPTIVE_THROTTLING;
+        private int throttlingDeadlineMillis = S3AccessGrantsUtils.DEFAULT_THROTTLING_DEADLINE_MILLIS;
+        private boolean enableStaleWhileRevalidate = S3AccessGrantsUtils.DEFAULT_STALE_WHILE_REVALIDATE;
+        private int staleSafetyMarginSeconds = S3AccessGrantsUtils.DEFAULT_STALE_SAFETY_MARGIN_SECONDS;
+        private int accessDeniedCacheExpireAfterWriteSeconds = S3AccessGrantsUtils.DEFAULT_ACCESS_DENIED_EXPIRE_AFTER_WRITE_SECONDS;
+        private int negativeCacheExpireAfterWriteSeconds = S3AccessGrantsUtils.DEFAULT_NEGATIVE_CACHE_EXPIRE_AFTER_WRITE_SECONDS;
+        private S3AccessGrantsPinnedBuckets pinnedBuckets = S3AccessGrantsPinnedBuckets.NONE;
 
         @Override
         public S3AccessGrantsRequestHandler build() {
-            return new S3AccessGrantsRequestHandler(enableFallback,privilege,duration, credentialsProvider, region, enableCrossRegionAccess);
+            return new S3AccessGrantsRequestHandler(enableFallback,privilege,duration, credentialsProvider, region, enableCrossRegionAccess,
+                    enableRefreshAhead, metricsPublisher, enableStageTimings, snapshotFile, snapshotIntervalSeconds,
+                    enableAdaptiveThrottling, throttlingDeadlineMillis, enableStaleWhileRevalidate, staleSafetyMarginSeconds,
+                    accessDeniedCacheExpireAfterWriteSeconds, negativeCacheExpireAfterWriteSeconds, pinnedBuckets);
         }
 
         @Override
@@ -150,6 +250,121 @@ public class S3AccessGrantsRequestHandler {
             this.region = region;
             return this;
         }
+
+        @Override
+        public Builder enableRefreshAhead(boolean enableRefreshAhead) {
+            this.enableRefreshAhead = enableRefreshAhead;
+            return this;
+        }
+
+        @Override
+        public Builder metricsPublisher(S3AccessGrantsMetricsPublisher metricsPublisher) {
+            S3AccessGrantsUtils.argumentNotNull(metricsPublisher, "Expecting a metrics publisher to be specified.");
+            this.metricsPublisher = metricsPublisher;
+            return this;
+        }
+
+        @Override
+        public Builder enableStageTimings(boolean enableStageTimings) {
+            this.enableStageTimings = enableStageTimings;
+            return this;
+        }
+
+        /**
+         * File the non-secret state of the caches is saved to periodically and when the request handler is closed, and
+         * restored from when the request handler is built: bucket account ids, bucket regions and the hottest grants,
+         * whose credentials are then fetched again in the background. Not set by default.
+         */
+        @Override
+        public Builder snapshotFile(Path snapshotFile) {
+            S3AccessGrantsUtils.argumentNotNull(snapshotFile, "Expecting a snapshot file to be specified.");
+            this.snapshotFile = snapshotFile;
+            return this;
+        }
+
+        @Override
+        public Builder snapshotIntervalSeconds(int snapshotIntervalSeconds) {
+            if (snapshotIntervalSeconds <= 0) {
+                throw new IllegalArgumentException("snapshotIntervalSeconds needs to be positive");
+            }
+            this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+            return this;
+        }
+
+        /**
+         * When enabled, the calls to Access Grants are slowed down when Access Grants throttles them, and wait for their
+         * turn for up to throttlingDeadlineMillis before being sent. The S3 Control clients do not retry throttled calls
+         * then, the slower rate takes the place of their retries. Disabled by default.
+         */
+        @Override
+        public Builder enableAdaptiveThrottling(boolean enableAdaptiveThrottling) {
+            this.enableAdaptiveThrottling = enableAdaptiveThrottling;
+            return this;
+        }
+
+        @Override
+        public Builder throttlingDeadlineMillis(int throttlingDeadlineMillis) {
+            if (throttlingDeadlineMillis < 0) {
+                throw new IllegalArgumentException("throttlingDeadlineMillis cannot be negative");
+            }
+            this.throttlingDeadlineMillis = throttlingDeadlineMillis;
+            return this;
+        }
+
+        /**
+         * When enabled, cached credentials which are due for renewal keep being returned while they are re-fetched in the
+         * background, until staleSafetyMarginSeconds before they expire. Disabled by default.
+         */
+        @Override
+        public Builder enableStaleWhileRevalidate(boolean enableStaleWhileRevalidate) {
+            this.enableStaleWhileRevalidate = enableStaleWhileRevalidate;
+            return this;
+        }
+
+        @Override
+        public Builder staleSafetyMarginSeconds(int staleSafetyMarginSeconds) {
+            if (staleSafetyMarginSeconds < 0) {
+                throw new IllegalArgumentException("staleSafetyMarginSeconds cannot be negative");
+            }
+            this.staleSafetyMarginSeconds = staleSafetyMarginSeconds;
+            return this;
+        }
+
+        /**
+         * How long a request denied by Access Grants is denied again without calling Access Grants. Defaults to 5 minutes.
+         */
+        @Override
+        public Builder accessDeniedCacheExpireAfterWriteSeconds(int accessDeniedCacheExpireAfterWriteSeconds) {
+            if (accessDeniedCacheExpireAfterWriteSeconds <= 0) {
+                throw new IllegalArgumentException("accessDeniedCacheExpireAfterWriteSeconds needs to be positive");
+            }
+            this.accessDeniedCacheExpireAfterWriteSeconds = accessDeniedCacheExpireAfterWriteSeconds;
+            return this;
+        }
+
+        /**
+         * How long a failure to resolve the account id or the region of a bucket, e.g. because the bucket does not exist,
+         * is rethrown without calling the service again. Throttling and server errors are never cached. Defaults to 30 seconds.
+         */
+        @Override
+        public Builder negativeCacheExpireAfterWriteSeconds(int negativeCacheExpireAfterWriteSeconds) {
+            if (negativeCacheExpireAfterWriteSeconds <= 0) {
+                throw new IllegalArgumentException("negativeCacheExpireAfterWriteSeconds needs to be positive");
+            }
+            this.negativeCacheExpireAfterWriteSeconds = negativeCacheExpireAfterWriteSeconds;
+            return this;
+        }
+
+        /**
+         * Account ids and regions of buckets which never change, e.g. read with S3AccessGrantsPinnedBuckets.readFrom from a
+         * properties file. GetAccessGrantsInstanceForPrefix and HeadBucket are never called for these buckets.
+         */
+        @Override
+        public Builder pinnedBuckets(S3AccessGrantsPinnedBuckets pinnedBuckets) {
+            S3AccessGrantsUtils.argumentNotNull(pinnedBuckets, "Expecting the pinned buckets to be specified.");
+            this.pinnedBuckets = pinnedBuckets;
+            return this;
+        }
     }
 
     /**
@@ -161,34 +376,32 @@ public class S3AccessGrantsRequestHandler {
     public AWSCredentialsProvider resolve (AmazonWebServiceRequest request) {
         AWSS3Control awsS3ControlClient;
         try {
-            String s3Prefix = operationDetails.getPath(request);
-            String operation = operationDetails.getOperation(request.getClass().toString());
-            Permission permission = operationDetails.getPermission(operation);
+            long pathParsingStart = stageTimings.start();
+            S3AccessGrantsOperation operation = operationDetails.getSupportedOperation(request);
+            String s3Prefix = operation.getPath(request);
+            Permission permission = operation.getPermission();
+            stageTimings.record(Stage.PATH_PARSING, pathParsingStart);
 
             if (enableCrossRegionAccess) {
                 logger.debug("Cross region access enabled.");
-                AmazonS3 s3Client = AmazonS3Client.builder().withRegion(region)
-                        .withCredentials(credentialsProvider)
-                        .withForceGlobalBucketAccessEnabled(true)
-                        .build();
-
-                awsS3ControlClient = getS3ControlClientForRegion(s3Client, s3Prefix);
+                awsS3ControlClient = getS3ControlClientForRegion(headBucketClientSupplier, s3Prefix);
             }
             else {
-                awsS3ControlClient = AWSS3ControlClientBuilder.standard()
-                        .withRegion(region)
-                        .withClientConfiguration(clientConfiguration)
-                        .withCredentials(credentialsProvider)
-                        .build();
+                long clientLookupStart = stageTimings.start();
+                awsS3ControlClient = clientPool.getS3ControlClient(region, credentialsProvider);
+                stageTimings.record(Stage.CLIENT_LOOKUP, clientLookupStart);
             }
             logger.debug("Calling S3 Access Grants with the following request params! ");
-            logger.debug("Operation : " + operation);
+            logger.debug("Operation : " + operation.getName());
             logger.debug("S3Prefix : " + s3Prefix);
-            String accountId = getCallerAccountId();
+            long callerIdentityStart = stageTimings.start();
+            AWSCredentials baseCredentials = credentialsProvider.getCredentials();
+            String accountId = getCallerAccountId(baseCredentials);
+            stageTimings.record(Stage.CALLER_IDENTITY, callerIdentityStart);
             logger.debug("Caller accountID : " + accountId);
             logger.debug("Permission : " + permission);
 
-            AWSCredentials credentials = getCredentialsFromAccessGrants(awsS3ControlClient, permission, s3Prefix, accountId);
+            AWSCredentials credentials = getCredentialsFromAccessGrants(awsS3ControlClient, baseCredentials, permission, s3Prefix, accountId);
 
             return new AWSStaticCredentialsProvider(credentials);
         } catch (AmazonServiceException e) {
@@ -208,10 +421,12 @@ public class S3AccessGrantsRequestHandler {
     boolean shouldFallbackToDefaultCredentialsForThisCase(Throwable cause) {
         if(enableFallback) {
             logger.debug(" Fall back enabled on the plugin! falling back to evaluate permission through policies!");
+            metricsPublisher.fallback(FallbackReason.FALLBACK_ENABLED);
             return true;
         }
         if(cause instanceof UnsupportedOperationException) {
             logger.debug(" Operation not supported by S3 access grants! fall back to evaluate permission through policies!");
+            metricsPublisher.fallback(FallbackReason.UNSUPPORTED_OPERATION);
             return true;
         }
         return false;
@@ -222,50 +437,263 @@ public class S3AccessGrantsRequestHandler {
      * @return accountId of the caller
      */
     String getCallerAccountId() {
-        String accountId = stsClient.getCallerIdentity(new GetCallerIdentityRequest()).getAccount();
+        return getCallerAccountId(credentialsProvider.getCredentials());
+    }
+
+    /**
+     * returns the account of the caller, calling STS only when the account is not cached for the access key of the credentials.
+     * Concurrent misses for the same access key share a single call to STS.
+     * @param credentials credentials of the caller
+     * @return accountId of the caller
+     */
+    String getCallerAccountId(AWSCredentials credentials) {
+        S3AccessGrantsUtils.argumentNotNull(credentials, "An internal exception has occurred. Expecting credentials to be specified for the request.");
+        String accessKeyId = credentials.getAWSAccessKeyId();
+        String accountId = callerAccountIdCache.getIfPresent(accessKeyId);
+        if (accountId != null) {
+            metricsPublisher.cacheHit(CacheName.CALLER_ACCOUNT_ID);
+            return accountId;
+        }
+        logger.debug("Caller account Id not available in the cache. Fetching the caller identity from STS.");
+        metricsPublisher.cacheMiss(CacheName.CALLER_ACCOUNT_ID);
+        return callerAccountIdCache.get(accessKeyId, key -> S3AccessGrantsMetrics.timeCacheLoad(metricsPublisher,
+                CacheName.CALLER_ACCOUNT_ID, () -> getCallerAccountIdFromService(credentials)));
+    }
+
+    private String getCallerAccountIdFromService(AWSCredentials credentials) {
+        String accountId = S3AccessGrantsMetrics.timeRemoteCall(metricsPublisher, RemoteCall.GET_CALLER_IDENTITY,
+                () -> stsClient.getCallerIdentity(new GetCallerIdentityRequest()
+                        .withRequestCredentialsProvider(new AWSStaticCredentialsProvider(credentials)))).getAccount();
         S3AccessGrantsUtils.argumentNotNull(accountId, "An internal exception has occurred. Expecting account Id to be specified for the request.");
         return accountId;
     }
 
     /**
      * *
+     * @param credentials Credentials of the caller used to call Access Grants
      * @param permission Permission required to perform an operation
      * @param s3Prefix s3Prefix of the bucket to get the credentials for
      * @param accountId Account Id of the requester
      * @return Credentials from Access Grants
      */
-    AWSCredentials getCredentialsFromAccessGrants(AWSS3Control awsS3ControlClient, Permission permission, String s3Prefix, String accountId) {
-        return cacheImpl.getDataAccess(awsS3ControlClient, credentialsProvider.getCredentials(), permission, s3Prefix, accountId);
+    AWSCredentials getCredentialsFromAccessGrants(AWSS3Control awsS3ControlClient, AWSCredentials credentials, Permission permission, String s3Prefix, String accountId) {
+        return cacheImpl.getDataAccess(awsS3ControlClient, credentials, permission, s3Prefix, accountId);
     }
 
     /**
      * *
-     * @param s3Client used to make headBucket() call
+     * @param s3ClientSupplier supplies the client used to make headBucket() call when the bucket region is not cached
      * @param s3Prefix 3Prefix of the bucket to get the credentials for
      * @return S3ControlClient for the region the bucket is in
      */
-    AWSS3Control getS3ControlClientForRegion(AmazonS3 s3Client, String s3Prefix) {
+    AWSS3Control getS3ControlClientForRegion(Supplier<AmazonS3> s3ClientSupplier, String s3Prefix) {
+        long bucketRegionStart = stageTimings.start();
         String bucketName = s3Prefix.split("/")[2];
-        Regions region = cacheImpl.getBucketRegion(s3Client, bucketName);
-        AWSS3Control s3ControlClient = clientsCache.get(region);
+        Regions region = cacheImpl.getBucketRegion(s3ClientSupplier, bucketName);
+        stageTimings.record(Stage.BUCKET_REGION, bucketRegionStart);
+        long clientLookupStart = stageTimings.start();
+        AWSS3Control s3ControlClient = clientPool.getS3ControlClient(region, credentialsProvider);
+        stageTimings.record(Stage.CLIENT_LOOKUP, clientLookupStart);
+        return s3ControlClient;
+    }
 
-        if (s3ControlClient == null) {
-            s3ControlClient = AWSS3ControlClientBuilder.standard()
-                    .withRegion(region)
-                    .withClientConfiguration(clientConfiguration)
-                    .withCredentials(credentialsProvider)
-                    .build();
-            clientsCache.put(region, s3ControlClient);
+    /**
+     * *
+     * @return the pooled S3 client used to look up bucket regions
+     */
+    AmazonS3 getHeadBucketClient() {
+        return clientPool.getS3Client(region, credentialsProvider);
+    }
+
+    /**
+     * Fetches the credentials for the given prefixes ahead of the requests needing them, e.g. at the start of a job which
+     * knows the prefixes it is going to access, so that the first requests to S3 find them cached. The account ids of the
+     * Access Grants instances, the bucket regions when cross-region access is enabled, and the credentials are resolved in
+     * the background with bounded parallelism.
+     * @param prefixPermissions prefixes and permissions to fetch credentials for
+     * @return future completed with the number of prefixes credentials are cached for once all of them have been processed
+     */
+    public CompletableFuture<Integer> prewarm(Collection<PrefixPermission> prefixPermissions) {
+        S3AccessGrantsUtils.argumentNotNull(prefixPermissions, "Expecting the prefixes to pre-warm to be specified.");
+        AWSCredentials baseCredentials = credentialsProvider.getCredentials();
+        String accountId = getCallerAccountId(baseCredentials);
+        return cacheImpl.prewarm(this::getS3ControlClientForBucket, baseCredentials, prefixPermissions, accountId);
+    }
+
+    /**
+     * Resolves the regions of the given buckets in parallel, so that a job accessing many buckets can look them up in one
+     * step instead of on the first request to each bucket.
+     * @param buckets names of the buckets
+     * @return regions keyed by bucket name, without the buckets whose region cannot be resolved
+     */
+    public Map<String, Regions> resolveBucketRegions(Collection<String> buckets) {
+        S3AccessGrantsUtils.argumentNotNull(buckets, "Expecting the buckets to be specified.");
+        return cacheImpl.getBucketRegions(headBucketClientSupplier, buckets);
+    }
+
+    /**
+     * Returns a request handler to register with the S3 client alongside a custom request handler calling resolve(). It
+     * caches the bucket regions S3 returns in its responses and errors, so that cross-region access does not need
+     * HeadBucket calls to find the regions of the buckets the S3 client accesses. S3AccessGrantsRequestHandler2 already
+     * does this, it does not need a learner registered with it.
+     * @return request handler learning bucket regions from S3 responses
+     */
+    public S3AccessGrantsBucketRegionLearner bucketRegionLearner() {
+        return new S3AccessGrantsBucketRegionLearner(this);
+    }
+
+    /**
+     * Caches the region observed in the response to a request. Requests of operations Access Grants does not support are
+     * ignored, as their bucket is never looked up. Only the bucket is read from the request, the prefix it accesses is
+     * not needed.
+     * @param request S3 request the response was received for
+     * @param bucketRegion region returned by S3 for the bucket of the request
+     */
+    void learnBucketRegion(AmazonWebServiceRequest request, String bucketRegion) {
+        String bucketName = request == null ? null : operationDetails.getBucketName(request);
+        if (bucketName != null) {
+            cacheImpl.learnBucketRegion(bucketName, bucketRegion);
+        }
+    }
+
+    /**
+     * Forgets the account id and the region cached for the bucket of a request, e.g. after S3 reported that the bucket
+     * does not exist. Requests of operations Access Grants does not support are ignored. Only the bucket is read from the
+     * request, the prefix it accesses is not needed.
+     * @param request S3 request which failed
+     */
+    void invalidateBucket(AmazonWebServiceRequest request) {
+        String bucketName = request == null ? null : operationDetails.getBucketName(request);
+        if (bucketName != null) {
+            cacheImpl.invalidateBucket(bucketName);
+        }
+    }
+
+    /**
+     * Removes the grant the Access Grants credentials of a request were served from, after S3 rejected them, so that they
+     * are fetched from Access Grants again by the next call to resolve(). Requests of operations Access Grants does not
+     * support are ignored, as they are sent with the credentials of the credentials provider.
+     * @param request S3 request which was rejected
+     * @param accessGrantsCredentials credentials the request was sent with
+     * @return true if the credentials were served from the cache and have been removed
+     */
+    boolean invalidateAccessGrantsCredentials(AmazonWebServiceRequest request, AWSCredentials accessGrantsCredentials) {
+        String s3Prefix = request == null ? null : operationDetails.getPath(request);
+        if (s3Prefix == null || accessGrantsCredentials == null) {
+            return false;
+        }
+        Permission permission = operationDetails.getSupportedOperation(request).getPermission();
+        return cacheImpl.invalidateDataAccess(credentialsProvider.getCredentials(), permission, s3Prefix, accessGrantsCredentials);
+    }
+
+    private AWSS3Control getS3ControlClientForBucket(String bucket) {
+        Regions bucketRegion = enableCrossRegionAccess ? cacheImpl.getBucketRegion(headBucketClientSupplier, bucket) : region;
+        return clientPool.getS3ControlClient(bucketRegion, credentialsProvider);
+    }
+
+    /**
+     * Seeds the caches from the snapshot file, if there is one, and fetches the credentials of the grants it lists again
+     * in the background. Only the grants of the requester the credentials provider currently returns are fetched.
+     */
+    private void restoreSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            logger.debug("No cache snapshot found at " + snapshotFile + ", starting with empty caches.");
+            return;
+        }
+        S3AccessGrantsCacheSnapshot snapshot;
+        try {
+            snapshot = S3AccessGrantsCacheSnapshot.readFrom(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to read the cache snapshot at " + snapshotFile + ", starting with empty caches: " + e);
+            return;
+        }
+        List<S3AccessGrantsCacheSnapshot.Grant> grants = cacheImpl.restore(snapshot);
+        if (!grants.isEmpty()) {
+            snapshotExecutor.execute(() -> prefetchGrants(grants));
+        }
+    }
+
+    private void prefetchGrants(List<S3AccessGrantsCacheSnapshot.Grant> grants) {
+        AWSCredentials baseCredentials;
+        try {
+            baseCredentials = credentialsProvider.getCredentials();
+        } catch (RuntimeException e) {
+            logger.debug("Unable to get the credentials to fetch the grants of the cache snapshot: " + e);
+            return;
+        }
+        logger.debug("Fetching the credentials of up to " + grants.size() + " grants from the cache snapshot.");
+        for (S3AccessGrantsCacheSnapshot.Grant grant : grants) {
+            if (!grant.getAccessKeyId().equals(baseCredentials.getAWSAccessKeyId())) {
+                continue;
+            }
+            try {
+                AWSS3Control s3ControlClient = getS3ControlClientForBucket(grant.getS3Prefix().split("/")[2]);
+                cacheImpl.getDataAccessAsync(s3ControlClient, baseCredentials, grant.getPermission(), grant.getS3Prefix(), grant.getAccountId())
+                        .whenComplete((credentials, e) -> {
+                            if (e != null) {
+                                logger.debug("Unable to fetch the credentials for s3Prefix " + grant.getS3Prefix() + " from the cache snapshot: " + e);
+                            }
+                        });
+            } catch (RuntimeException e) {
+                logger.debug("Unable to fetch the credentials for s3Prefix " + grant.getS3Prefix() + " from the cache snapshot: " + e);
+            }
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            cacheImpl.snapshot(S3AccessGrantsUtils.SNAPSHOT_MAX_GRANTS).writeTo(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to write the cache snapshot to " + snapshotFile + ": " + e);
         }
-        return s3ControlClient;
+    }
+
+    /**
+     * Waits for a scheduled snapshot which is being written to complete, so that the snapshot written on close is the last.
+     */
+    private void awaitSnapshotExecutorTermination() {
+        try {
+            if (!snapshotExecutor.awaitTermination(S3AccessGrantsUtils.SNAPSHOT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("The scheduled cache snapshot did not complete in time, the snapshot is written concurrently.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the latencies of the stages of resolve(), which are only recorded when stage timings are enabled on the
+     * builder. Snapshots can be taken at any time, concurrently with requests.
+     * @return latency histograms of the stages of resolve()
+     */
+    public S3AccessGrantsStageTimings getStageTimings() {
+        return stageTimings;
     }
 
     /**
      * *
-     * @return map of S3ControlClients
+     * @return pool of S3ControlClients
+     */
+    S3AccessGrantsClientPool getClientPool(){
+        return this.clientPool;
+    }
+
+    /**
+     * Shuts down the clients owned by the request handler, after saving the snapshot of the caches when a snapshot file
+     * is configured. The request handler cannot be used once it is closed.
      */
-    ConcurrentHashMap<Regions, AWSS3Control> getClientsCache(){
-        return this.clientsCache;
+    @Override
+    public void close() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+            awaitSnapshotExecutorTermination();
+            writeSnapshot();
+        }
+        cacheImpl.close();
+        clientPool.close();
+        if (stsClient != null) {
+            stsClient.shutdown();
+        }
     }
 
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.plugin;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings;
+import com.amazonaws.s3accessgrants.cache.S3AccessGrantsStageTimings.Stage;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsUtils;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Request handler integrating an S3AccessGrantsRequestHandler with an S3 client. Register it with the S3 client with
+ * withRequestHandlers() and it takes care of the whole lifecycle of the requests the client sends:
+ * <ul>
+ *     <li>the credentials of every request are resolved from Access Grants before it is sent,</li>
+ *     <li>the time spent resolving them and sending the request to S3 is recorded in the stage timings of the request
+ *     handler when they are enabled,</li>
+ *     <li>the bucket regions S3 returns in its responses and errors are cached, sparing HeadBucket calls,</li>
+ *     <li>the account id and region cached for a bucket S3 reports as not existing are forgotten.</li>
+ * </ul>
+ * Caching bucket regions and forgetting buckets never fails the request they are observed on.
+ * When the S3 client is also configured with the retry policy of the handler, a request S3 rejects with 403 Forbidden
+ * removes the grant its credentials were served from, e.g. because the grant was revoked or narrowed, and is retried
+ * once with credentials fetched from Access Grants again.
+ * The request handler is not closed by the S3 client, it still has to be closed by the application.
+ */
+public final class S3AccessGrantsRequestHandler2 extends RequestHandler2 {
+    static final String NO_SUCH_BUCKET_ERROR_CODE = "NoSuchBucket";
+    static final HandlerContextKey<Long> S3_REQUEST_START = new HandlerContextKey<>("S3AccessGrantsS3RequestStart");
+    private static final Log logger = LogFactory.getLog(S3AccessGrantsRequestHandler2.class);
+
+    private final S3AccessGrantsRequestHandler requestHandler;
+    private final S3AccessGrantsBucketRegionLearner bucketRegionLearner;
+    private final S3AccessGrantsStageTimings stageTimings;
+
+    /**
+     * @param requestHandler request handler resolving the credentials of the requests from Access Grants
+     */
+    public S3AccessGrantsRequestHandler2(S3AccessGrantsRequestHandler requestHandler) {
+        S3AccessGrantsUtils.argumentNotNull(requestHandler, "Expecting a request handler to be specified.");
+        this.requestHandler = requestHandler;
+        this.bucketRegionLearner = requestHandler.bucketRegionLearner();
+        this.stageTimings = requestHandler.getStageTimings();
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        long resolveStart = stageTimings.start();
+        AWSCredentialsProvider accessGrantsCredentials = requestHandler.resolve(request);
+        stageTimings.record(Stage.RESOLVE, resolveStart);
+        request.setRequestCredentialsProvider(new RequestCredentialsProvider(request, accessGrantsCredentials));
+        if (stageTimings.isEnabled()) {
+            request.addHandlerContext(S3_REQUEST_START, stageTimings.start());
+        }
+        return super.beforeExecution(request);
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        recordS3Request(request);
+        bucketRegionLearner.afterResponse(request, response);
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        recordS3Request(request);
+        bucketRegionLearner.afterError(request, response, e);
+        if (request != null && e instanceof AmazonS3Exception
+                && NO_SUCH_BUCKET_ERROR_CODE.equals(((AmazonS3Exception) e).getErrorCode())) {
+            try {
+                requestHandler.invalidateBucket(request.getOriginalRequest());
+            } catch (RuntimeException invalidationException) {
+                logger.debug("Unable to forget the bucket S3 reported as not existing: " + invalidationException);
+            }
+        }
+    }
+
+    /**
+     * Returns the default retry policy of the SDK, extended to retry a request once when S3 rejects its Access Grants
+     * credentials. Set it on the ClientConfiguration of the S3 client the handler is registered with.
+     * @return retry policy re-resolving rejected credentials
+     */
+    public RetryPolicy retryPolicy() {
+        RetryPolicy defaultRetryPolicy = PredefinedRetryPolicies.getDefaultRetryPolicy();
+        return new RetryPolicy(retryCondition(defaultRetryPolicy.getRetryCondition()), defaultRetryPolicy.getBackoffStrategy(),
+                defaultRetryPolicy.getMaxErrorRetry(), true);
+    }
+
+    /**
+     * Extends a retry condition to retry a request once when S3 rejects it with 403 Forbidden. The grant its Access Grants
+     * credentials were served from is removed from the cache, and the request is retried if resolving its credentials
+     * again returns other credentials. Other errors are left to the given condition.
+     * @param retryCondition retry condition of the S3 client
+     * @return retry condition re-resolving rejected credentials
+     */
+    public RetryPolicy.RetryCondition retryCondition(RetryPolicy.RetryCondition retryCondition) {
+        S3AccessGrantsUtils.argumentNotNull(retryCondition, "Expecting a retry condition to be specified.");
+        return (originalRequest, exception, retriesAttempted) -> reResolveRejectedCredentials(originalRequest, exception)
+                || retryCondition.shouldRetry(originalRequest, exception, retriesAttempted);
+    }
+
+    private boolean reResolveRejectedCredentials(AmazonWebServiceRequest request, AmazonClientException exception) {
+        if (request == null || !(request.getRequestCredentialsProvider() instanceof RequestCredentialsProvider)) {
+            return false;
+        }
+        if (!(exception instanceof AmazonServiceException) || ((AmazonServiceException) exception).getStatusCode() != 403) {
+            return false;
+        }
+        return ((RequestCredentialsProvider) request.getRequestCredentialsProvider()).reResolve();
+    }
+
+    private void recordS3Request(Request<?> request) {
+        Long s3RequestStart = request == null ? null : request.getHandlerContext(S3_REQUEST_START);
+        if (s3RequestStart != null) {
+            stageTimings.record(Stage.S3_REQUEST, s3RequestStart);
+        }
+    }
+
+    /**
+     * Credentials provider of a request, serving the credentials resolved for it before it was sent, and the credentials
+     * resolved again after S3 rejected them. The credentials of a request are resolved again at most once.
+     */
+    private final class RequestCredentialsProvider implements AWSCredentialsProvider {
+        private final AmazonWebServiceRequest request;
+        private final AtomicBoolean reResolved = new AtomicBoolean();
+        private volatile AWSCredentialsProvider credentialsProvider;
+
+        private RequestCredentialsProvider(AmazonWebServiceRequest request, AWSCredentialsProvider credentialsProvider) {
+            this.request = request;
+            this.credentialsProvider = credentialsProvider;
+        }
+
+        @Override
+        public AWSCredentials getCredentials() {
+            return credentialsProvider.getCredentials();
+        }
+
+        @Override
+        public void refresh() {
+            credentialsProvider.refresh();
+        }
+
+        /**
+         * Removes the grant the rejected credentials were served from and resolves the credentials of the request again.
+         * Requests sent with the credentials of the credentials provider of the request handler resolve to the same
+         * credentials again and are not retried. Only the first caller resolves the credentials again, without holding a
+         * lock while Access Grants is called.
+         * @return true if the request should be retried with the credentials resolved again
+         */
+        private boolean reResolve() {
+            if (!reResolved.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                AWSCredentials rejectedCredentials = credentialsProvider.getCredentials();
+                requestHandler.invalidateAccessGrantsCredentials(request, rejectedCredentials);
+                AWSCredentialsProvider reResolvedCredentialsProvider = requestHandler.resolve(request);
+                if (sameCredentials(reResolvedCredentialsProvider.getCredentials(), rejectedCredentials)) {
+                    return false;
+                }
+                logger.debug("S3 rejected the Access Grants credentials of the request, retrying with the credentials resolved again.");
+                credentialsProvider = reResolvedCredentialsProvider;
+                return true;
+            } catch (RuntimeException e) {
+                logger.debug("Unable to resolve the rejected Access Grants credentials again: " + e);
+                return false;
+            }
+        }
+
+        private boolean sameCredentials(AWSCredentials credentials, AWSCredentials otherCredentials) {
+            return Objects.equals(credentials.getAWSAccessKeyId(), otherCredentials.getAWSAccessKeyId())
+                    && Objects.equals(credentials.getAWSSecretKey(), otherCredentials.getAWSSecretKey())
+                    && Objects.equals(sessionToken(credentials), sessionToken(otherCredentials));
+        }
+
+        private String sessionToken(AWSCredentials credentials) {
+            return credentials instanceof AWSSessionCredentials ? ((AWSSessionCredentials) credentials).getSessionToken() : null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.plugin.internal;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3control.AWSS3Control;
+import com.amazonaws.services.s3control.AWSS3ControlClientBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of long-lived clients used by the plugin to talk to Access Grants. Clients are keyed by region and credentials
+ * provider, built once on first use and shared by every request until the pool is closed.
+ */
+public class S3AccessGrantsClientPool implements AutoCloseable {
+    private final ClientConfiguration clientConfiguration;
+    private final ClientConfiguration s3ControlClientConfiguration;
+    private final ConcurrentHashMap<AWSCredentialsProvider, ConcurrentHashMap<Regions, AWSS3Control>> s3ControlClients = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<AWSCredentialsProvider, ConcurrentHashMap<Regions, AmazonS3>> s3Clients = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private static final Log logger = LogFactory.getLog(S3AccessGrantsClientPool.class);
+
+    public S3AccessGrantsClientPool(ClientConfiguration clientConfiguration) {
+        this(clientConfiguration, true);
+    }
+
+    /**
+     * @param clientConfiguration configuration of the clients
+     * @param retryThrottledS3ControlCalls false to have the S3 Control clients not retry throttled calls, e.g. when the
+     *                                     rate of the calls is already adapted to throttling by the caller
+     */
+    public S3AccessGrantsClientPool(ClientConfiguration clientConfiguration, boolean retryThrottledS3ControlCalls) {
+        S3AccessGrantsUtils.argumentNotNull(clientConfiguration, "Expecting a client configuration to be specified for the client pool.");
+        this.clientConfiguration = clientConfiguration;
+        this.s3ControlClientConfiguration = retryThrottledS3ControlCalls ? clientConfiguration
+                : new ClientConfiguration(clientConfiguration).withRetryPolicy(withoutThrottlingRetries(clientConfiguration.getRetryPolicy()));
+    }
+
+    private static RetryPolicy withoutThrottlingRetries(RetryPolicy retryPolicy) {
+        RetryPolicy basePolicy = retryPolicy == null ? PredefinedRetryPolicies.getDefaultRetryPolicy() : retryPolicy;
+        RetryPolicy.RetryCondition retryCondition = basePolicy.getRetryCondition();
+        return new RetryPolicy((originalRequest, exception, retriesAttempted) -> !RetryUtils.isThrottlingException(exception)
+                && retryCondition.shouldRetry(originalRequest, exception, retriesAttempted),
+                basePolicy.getBackoffStrategy(), basePolicy.getMaxErrorRetry(), basePolicy.isMaxErrorRetryInClientConfigHonored());
+    }
+
+    /**
+     * This method returns the S3 Control client for the given region and credentials, building it on first use.
+     * @param region region the client should call
+     * @param credentialsProvider credentials used by the client
+     * @return a pooled S3 Control client
+     */
+    public AWSS3Control getS3ControlClient(Regions region, AWSCredentialsProvider credentialsProvider) {
+        S3AccessGrantsUtils.argumentNotNull(region, "An internal exception has occurred. Expecting region to be specified for the S3 Control client.");
+        S3AccessGrantsUtils.argumentNotNull(credentialsProvider, "An internal exception has occurred. Expecting credentials provider to be specified for the S3 Control client.");
+        ensureOpen();
+        ConcurrentHashMap<Regions, AWSS3Control> clientsForProvider = s3ControlClients.get(credentialsProvider);
+        AWSS3Control s3ControlClient = clientsForProvider == null ? null : clientsForProvider.get(region);
+        if (s3ControlClient != null) {
+            return s3ControlClient;
+        }
+        s3ControlClient = s3ControlClients.computeIfAbsent(credentialsProvider, provider -> new ConcurrentHashMap<>())
+                .computeIfAbsent(region, r -> buildS3ControlClient(r, credentialsProvider));
+        if (closed) {
+            // the pool was closed while the client was built, it may have been pooled after close() shut the clients down
+            shutdownQuietly(s3ControlClient);
+            ensureOpen();
+        }
+        return s3ControlClient;
+    }
+
+    /**
+     * This method returns the S3 client used to look up bucket regions, building it on first use. The client has global
+     * bucket access enabled so that it can reach buckets in any region.
+     * @param region region the client is created in
+     * @param credentialsProvider credentials used by the client
+     * @return a pooled S3 client
+     */
+    public AmazonS3 getS3Client(Regions region, AWSCredentialsProvider credentialsProvider) {
+        S3AccessGrantsUtils.argumentNotNull(region, "An internal exception has occurred. Expecting region to be specified for the S3 client.");
+        S3AccessGrantsUtils.argumentNotNull(credentialsProvider, "An internal exception has occurred. Expecting credentials provider to be specified for the S3 client.");
+        ensureOpen();
+        ConcurrentHashMap<Regions, AmazonS3> clientsForProvider = s3Clients.get(credentialsProvider);
+        AmazonS3 s3Client = clientsForProvider == null ? null : clientsForProvider.get(region);
+        if (s3Client != null) {
+            return s3Client;
+        }
+        s3Client = s3Clients.computeIfAbsent(credentialsProvider, provider -> new ConcurrentHashMap<>())
+                .computeIfAbsent(region, r -> buildS3Client(r, credentialsProvider));
+        if (closed) {
+            // the pool was closed while the client was built, it may have been pooled after close() shut the clients down
+            shutdownQuietly(s3Client);
+            ensureOpen();
+        }
+        return s3Client;
+    }
+
+    /**
+     * @return true if the pool has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Shuts down every pooled client. Clients cannot be requested from the pool once it is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Map<Regions, AWSS3Control> clientsForProvider : s3ControlClients.values()) {
+            for (AWSS3Control s3ControlClient : clientsForProvider.values()) {
+                shutdownQuietly(s3ControlClient);
+            }
+        }
+        s3ControlClients.clear();
+        for (Map<Regions, AmazonS3> clientsForProvider : s3Clients.values()) {
+            for (AmazonS3 s3Client : clientsForProvider.values()) {
+                shutdownQuietly(s3Client);
+            }
+        }
+        s3Clients.clear();
+    }
+
+    private AWSS3Control buildS3ControlClient(Regions region, AWSCredentialsProvider credentialsProvider) {
+        logger.debug("Creating S3 Control client for region : " + region);
+        return AWSS3ControlClientBuilder.standard()
+                .withRegion(region)
+                .withClientConfiguration(s3ControlClientConfiguration)
+                .withCredentials(credentialsProvider)
+                .build();
+    }
+
+    private AmazonS3 buildS3Client(Regions region, AWSCredentialsProvider credentialsProvider) {
+        logger.debug("Creating S3 client for bucket region lookups in region : " + region);
+        return AmazonS3ClientBuilder.standard()
+                .withRegion(region)
+                .withClientConfiguration(clientConfiguration)
+                .withCredentials(credentialsProvider)
+                .withForceGlobalBucketAccessEnabled(true)
+                .build();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The S3 Access Grants client pool has been closed.");
+        }
+    }
+
+    private void shutdownQuietly(AWSS3Control s3ControlClient) {
+        try {
+            s3ControlClient.shutdown();
+        } catch (RuntimeException e) {
+            logger.debug("Exception occurred while shutting down the S3 Control client: " + e);
+        }
+    }
+
+    private void shutdownQuietly(AmazonS3 s3Client) {
+        try {
+            s3Client.shutdown();
+        } catch (RuntimeException e) {
+            logger.debug("Exception occurred while shutting down the S3 client: " + e);
+        }
+    }
+}
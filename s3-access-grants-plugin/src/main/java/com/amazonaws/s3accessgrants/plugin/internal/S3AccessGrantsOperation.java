@@ -0,0 +1,71 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.s3accessgrants.plugin.internal;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.s3control.model.Permission;
+
+import java.util.function.Function;
+
+/**
+ * An S3 operation supported by Access Grants, with the permission it requires and the way the bucket it is sent to and the
+ * S3 prefix it accesses are read from its request.
+ */
+public final class S3AccessGrantsOperation {
+    private final String name;
+    private final Permission permission;
+    private final Function<AmazonWebServiceRequest, String> bucketExtractor;
+    private final Function<AmazonWebServiceRequest, String> pathExtractor;
+
+    <T extends AmazonWebServiceRequest> S3AccessGrantsOperation(Class<T> requestClass, Permission permission,
+                                                               Function<T, String> bucketExtractor,
+                                                               Function<T, String> pathExtractor) {
+        this.name = requestClass.getSimpleName();
+        this.permission = permission;
+        this.bucketExtractor = request -> bucketExtractor.apply(requestClass.cast(request));
+        this.pathExtractor = request -> pathExtractor.apply(requestClass.cast(request));
+    }
+
+    /**
+     * @return the simple name of the request class of the operation, e.g. GetObjectRequest
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the permission the operation requires
+     */
+    public Permission getPermission() {
+        return permission;
+    }
+
+    /**
+     * @param request a request of this operation
+     * @return the bucket the request is sent to, e.g. the destination bucket of a copy
+     */
+    public String getBucketName(AmazonWebServiceRequest request) {
+        return bucketExtractor.apply(request);
+    }
+
+    /**
+     * @param request a request of this operation
+     * @return the S3 prefix the request accesses, e.g. s3://bucket/path/to/object
+     */
+    public String getPath(AmazonWebServiceRequest request) {
+        return pathExtractor.apply(request);
+    }
+}
@@ -39,40 +39,87 @@ import com.amazonaws.services.s3control.model.Permission;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
 
 public class S3AccessGrantsStaticOperationDetails {
 
-    private static final HashMap<String, Permission> supportedAccessGrantsOperations =  new HashMap<>();
+    private static final Map<Class<?>, S3AccessGrantsOperation> supportedAccessGrantsOperations = new IdentityHashMap<>();
+    private static final HashMap<String, Permission> supportedAccessGrantsOperationNames = new HashMap<>();
     private static final Log logger = LogFactory.getLog(S3AccessGrantsStaticOperationDetails.class);
 
     static {
-        supportedAccessGrantsOperations.put("GETOBJECTREQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("GETOBJECTACLREQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("LISTMULTIPARTUPLOADSREQUEST", Permission.READ); 
-        supportedAccessGrantsOperations.put("LISTOBJECTSREQUEST", Permission.READ); 
-        supportedAccessGrantsOperations.put("LISTOBJECTSV2REQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("LISTVERSIONSREQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("GETOBJECTMETADATAREQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("HEADBUCKETREQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("LISTPARTSREQUEST", Permission.READ);
-        supportedAccessGrantsOperations.put("PUTOBJECTREQUEST", Permission.WRITE); 
-        supportedAccessGrantsOperations.put("SETOBJECTACLREQUEST", Permission.WRITE); 
-        supportedAccessGrantsOperations.put("DELETEOBJECTREQUEST", Permission.WRITE); 
-        supportedAccessGrantsOperations.put("ABORTMULTIPARTUPLOADREQUEST", Permission.WRITE); 
-        supportedAccessGrantsOperations.put("INITIATEMULTIPARTUPLOADREQUEST", Permission.WRITE);
-        supportedAccessGrantsOperations.put("UPLOADPARTREQUEST", Permission.WRITE);
-        supportedAccessGrantsOperations.put("COMPLETEMULTIPARTUPLOADREQUEST", Permission.WRITE);
-        supportedAccessGrantsOperations.put("DELETEOBJECTSREQUEST", Permission.WRITE);
-        supportedAccessGrantsOperations.put("COPYOBJECTREQUEST", Permission.READWRITE);
+        register(GetObjectRequest.class, Permission.READ, GetObjectRequest::getBucketName, request -> objectPath(request.getBucketName(), request.getKey()));
+        register(GetObjectAclRequest.class, Permission.READ, GetObjectAclRequest::getBucketName, request -> objectPath(request.getBucketName(), request.getKey()));
+        register(ListMultipartUploadsRequest.class, Permission.READ, ListMultipartUploadsRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getPrefix()));
+        register(ListObjectsRequest.class, Permission.READ, ListObjectsRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getPrefix()));
+        register(ListObjectsV2Request.class, Permission.READ, ListObjectsV2Request::getBucketName, request -> prefixPath(request.getBucketName(), request.getPrefix()));
+        register(ListVersionsRequest.class, Permission.READ, ListVersionsRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getPrefix()));
+        register(GetObjectMetadataRequest.class, Permission.READ, GetObjectMetadataRequest::getBucketName, request -> objectPath(request.getBucketName(), request.getKey()));
+        register(HeadBucketRequest.class, Permission.READ, HeadBucketRequest::getBucketName, request -> "s3://" + request.getBucketName());
+        register(ListPartsRequest.class, Permission.READ, ListPartsRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getKey()));
+        register(PutObjectRequest.class, Permission.WRITE, PutObjectRequest::getBucketName, request -> objectPath(request.getBucketName(), request.getKey()));
+        register(SetObjectAclRequest.class, Permission.WRITE, SetObjectAclRequest::getBucketName, request -> objectPath(request.getBucketName(), request.getKey()));
+        register(DeleteObjectRequest.class, Permission.WRITE, DeleteObjectRequest::getBucketName, request -> objectPath(request.getBucketName(), request.getKey()));
+        register(AbortMultipartUploadRequest.class, Permission.WRITE, AbortMultipartUploadRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getKey()));
+        register(InitiateMultipartUploadRequest.class, Permission.WRITE, InitiateMultipartUploadRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getKey()));
+        register(UploadPartRequest.class, Permission.WRITE, UploadPartRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getKey()));
+        register(CompleteMultipartUploadRequest.class, Permission.WRITE, CompleteMultipartUploadRequest::getBucketName, request -> prefixPath(request.getBucketName(), request.getKey()));
+        register(DeleteObjectsRequest.class, Permission.WRITE, DeleteObjectsRequest::getBucketName, S3AccessGrantsStaticOperationDetails::deleteObjectsPath);
+        register(CopyObjectRequest.class, Permission.READWRITE, CopyObjectRequest::getDestinationBucketName, S3AccessGrantsStaticOperationDetails::copyObjectPath);
+    }
+
+    /**
+     * Operation of each request class, resolved once per class. A request class which is not supported itself is
+     * resolved to the operation of its closest supported superclass, if any.
+     */
+    private static final ClassValue<Optional<S3AccessGrantsOperation>> operationsByRequestClass = new ClassValue<Optional<S3AccessGrantsOperation>>() {
+        @Override
+        protected Optional<S3AccessGrantsOperation> computeValue(Class<?> requestClass) {
+            for (Class<?> type = requestClass; type != null; type = type.getSuperclass()) {
+                S3AccessGrantsOperation operation = supportedAccessGrantsOperations.get(type);
+                if (operation != null) {
+                    return Optional.of(operation);
+                }
+            }
+            return Optional.empty();
+        }
+    };
+
+    private static <T extends AmazonWebServiceRequest> void register(Class<T> requestClass, Permission permission,
+                                                                     Function<T, String> bucketExtractor,
+                                                                     Function<T, String> pathExtractor) {
+        S3AccessGrantsOperation operation = new S3AccessGrantsOperation(requestClass, permission, bucketExtractor, pathExtractor);
+        supportedAccessGrantsOperations.put(requestClass, operation);
+        supportedAccessGrantsOperationNames.put(operation.getName().toUpperCase(), permission);
+    }
+
+    /**
+     * This method returns the operation of the request, with the permission it requires and the S3 prefix it accesses.
+     * @param request S3 request
+     * @return the operation of the request
+     * @throws AmazonServiceException if Access Grants does not support the operation
+     */
+    public S3AccessGrantsOperation getSupportedOperation(AmazonWebServiceRequest request) throws AmazonServiceException {
+        S3AccessGrantsUtils.argumentNotNull(request, "An internal exception has occurred. Expecting request to be specified.");
+        Optional<S3AccessGrantsOperation> operation = operationsByRequestClass.get(request.getClass());
+        if (operation.isPresent()) {
+            return operation.get();
+        }
+        throw new AmazonServiceException("The requested operation cannot be completed!", new UnsupportedOperationException("Access Grants does not support the requested operation!"));
     }
 
     public Permission getPermission(String operation) throws AmazonServiceException {
         S3AccessGrantsUtils.argumentNotNull(operation, "An internal exception has occurred. Expecting operation to be specified for the request.");
-        if (supportedAccessGrantsOperations.containsKey(operation.toUpperCase())) {
-            return supportedAccessGrantsOperations.get(operation.toUpperCase());
+        Permission permission = supportedAccessGrantsOperationNames.get(operation.toUpperCase());
+        if (permission != null) {
+            return permission;
         }
         throw new AmazonServiceException("The requested operation cannot be completed!", new UnsupportedOperationException("Access Grants does not support the requested operation!"));
     }
@@ -84,161 +131,100 @@ public class S3AccessGrantsStaticOperationDetails {
 
     public String getPath (AmazonWebServiceRequest request) {
         S3AccessGrantsUtils.argumentNotNull(request, "An internal exception has occurred. Expecting request to be specified.");
-        String s3Prefix = null;
-        if (request instanceof GetObjectRequest) {
-            GetObjectRequest getObjectRequest = (GetObjectRequest) request;
-            s3Prefix = "s3://" + getObjectRequest.getBucketName() + "/" + getObjectRequest.getKey();
-        }
-        else if (request instanceof ListObjectsRequest) {
-            ListObjectsRequest listObjectsRequest = (ListObjectsRequest) request;
-            if (listObjectsRequest.getPrefix() == null) {
-                s3Prefix = "s3://" + listObjectsRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + listObjectsRequest.getBucketName() + "/" + listObjectsRequest.getPrefix();
-            }
-        }
-        else if (request instanceof ListObjectsV2Request) {
-            ListObjectsV2Request listObjectsRequest = (ListObjectsV2Request) request;
-            if (listObjectsRequest.getPrefix() == null) {
-                s3Prefix = "s3://" + listObjectsRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + listObjectsRequest.getBucketName() + "/" + listObjectsRequest.getPrefix();
-            }
-        }
-        else if (request instanceof PutObjectRequest) {
-            PutObjectRequest putObjectRequest = (PutObjectRequest) request;
-            s3Prefix = "s3://" + putObjectRequest.getBucketName() + "/" +putObjectRequest.getKey();
-        }
-        else if (request instanceof DeleteObjectRequest) {
-            DeleteObjectRequest deleteObjectRequest = (DeleteObjectRequest) request;
-            s3Prefix = "s3://" + deleteObjectRequest.getBucketName() + "/" +deleteObjectRequest.getKey();
-        }
-        else if (request instanceof SetObjectAclRequest) {
-            SetObjectAclRequest setObjectAclRequest = (SetObjectAclRequest) request;
-            s3Prefix = "s3://" + setObjectAclRequest.getBucketName() + "/" +setObjectAclRequest.getKey();
-        }
-        else if (request instanceof GetObjectAclRequest) {
-            GetObjectAclRequest getObjectAclRequest = (GetObjectAclRequest) request;
-            s3Prefix = "s3://" + getObjectAclRequest.getBucketName() + "/" +getObjectAclRequest.getKey();
-        }
-        else if (request instanceof ListVersionsRequest) {
-            ListVersionsRequest listVersionsRequest = (ListVersionsRequest) request;
-            if (listVersionsRequest.getPrefix() == null){
-                s3Prefix = "s3://" + listVersionsRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + listVersionsRequest.getBucketName() + "/" + listVersionsRequest.getPrefix();
-            }
-        }
-        else if (request instanceof ListMultipartUploadsRequest) {
-            ListMultipartUploadsRequest listMultipartUploadsRequest = (ListMultipartUploadsRequest) request;
-            if (listMultipartUploadsRequest.getPrefix() == null){
-                s3Prefix = "s3://" + listMultipartUploadsRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + listMultipartUploadsRequest.getBucketName() + "/" + listMultipartUploadsRequest.getPrefix();
-            }
-        }
-        else if (request instanceof InitiateMultipartUploadRequest) {
-            InitiateMultipartUploadRequest initiateMultipartUploadRequest = (InitiateMultipartUploadRequest) request;
-            if (initiateMultipartUploadRequest.getKey() == null){
-                s3Prefix = "s3://" + initiateMultipartUploadRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + initiateMultipartUploadRequest.getBucketName() + "/" + initiateMultipartUploadRequest.getKey();
-            }
-        }
-        else if (request instanceof UploadPartRequest) {
-            UploadPartRequest uploadPartRequest = (UploadPartRequest) request;
-            if (uploadPartRequest.getKey() == null){
-                s3Prefix = "s3://" + uploadPartRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + uploadPartRequest.getBucketName() + "/" + uploadPartRequest.getKey();
-            }
-        }
-        else if (request instanceof CompleteMultipartUploadRequest) {
-            CompleteMultipartUploadRequest completeMultipartUploadRequest = (CompleteMultipartUploadRequest) request;
-            if (completeMultipartUploadRequest.getKey() == null){
-                s3Prefix = "s3://" + completeMultipartUploadRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + completeMultipartUploadRequest.getBucketName() + "/" + completeMultipartUploadRequest.getKey();
-            }
-        }
-        else if (request instanceof AbortMultipartUploadRequest) {
-            AbortMultipartUploadRequest abortMultipartUploadRequest = (AbortMultipartUploadRequest) request;
-            if (abortMultipartUploadRequest.getKey() == null){
-                s3Prefix = "s3://" + abortMultipartUploadRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + abortMultipartUploadRequest.getBucketName() + "/" + abortMultipartUploadRequest.getKey();
-            }
-        }
-        else if (request instanceof GetObjectMetadataRequest) {
-            GetObjectMetadataRequest getObjectMetadataRequest = (GetObjectMetadataRequest) request;
-                s3Prefix = "s3://" + getObjectMetadataRequest.getBucketName() + "/" + getObjectMetadataRequest.getKey();
-        }
-        else if (request instanceof HeadBucketRequest) {
-            HeadBucketRequest headBucketRequest = (HeadBucketRequest) request;
-            s3Prefix = "s3://" + headBucketRequest.getBucketName();
-        }
-        else if (request instanceof DeleteObjectsRequest) {
-            DeleteObjectsRequest deleteObjectRequest = (DeleteObjectsRequest) request;
-            List<DeleteObjectsRequest.KeyVersion> keyList = deleteObjectRequest.getKeys();
-            ArrayList<String> objectKeysToDelete = new ArrayList<>();
-            for (DeleteObjectsRequest.KeyVersion i : keyList) {
-                objectKeysToDelete.add(i.getKey());
-            }
-            s3Prefix = "s3://" + deleteObjectRequest.getBucketName() + getCommonPrefixFromMultiplePrefixes(objectKeysToDelete);
+        Optional<S3AccessGrantsOperation> operation = operationsByRequestClass.get(request.getClass());
+        return operation.isPresent() ? operation.get().getPath(request) : null;
+    }
+
+    /**
+     * This method returns the bucket a request is sent to, without computing the prefix it accesses, so that it does not
+     * fail for requests Access Grants cannot serve, e.g. a copy between two buckets or a DeleteObjects without keys.
+     * @param request S3 request
+     * @return the bucket the request is sent to, or null if Access Grants does not support the operation
+     */
+    public String getBucketName(AmazonWebServiceRequest request) {
+        S3AccessGrantsUtils.argumentNotNull(request, "An internal exception has occurred. Expecting request to be specified.");
+        Optional<S3AccessGrantsOperation> operation = operationsByRequestClass.get(request.getClass());
+        return operation.isPresent() ? operation.get().getBucketName(request) : null;
+    }
+
+    private static String objectPath(String bucketName, String key) {
+        return "s3://" + bucketName + "/" + key;
+    }
+
+    private static String prefixPath(String bucketName, String prefix) {
+        if (prefix == null) {
+            return "s3://" + bucketName;
         }
-        else if (request instanceof CopyObjectRequest) {
-            CopyObjectRequest copyObjectRequest = (CopyObjectRequest) request;
-            if (!copyObjectRequest.getSourceBucketName().equals(copyObjectRequest.getDestinationBucketName())){
-                logger.debug("Source and destination buckets are different for copy request. Access Grants does not support this use-case.");
-                throw new AmazonServiceException("The requested operation cannot be completed!", new UnsupportedOperationException("Access Grants does not support the requested operation!"));
-            } else {
-                ArrayList<String> keysList = new ArrayList<>();
-                keysList.add(copyObjectRequest.getSourceKey());
-                keysList.add(copyObjectRequest.getDestinationKey());
-                s3Prefix = "s3://" + copyObjectRequest.getSourceBucketName() + getCommonPrefixFromMultiplePrefixes(keysList);
+        return "s3://" + bucketName + "/" + prefix;
+    }
+
+    private static String deleteObjectsPath(DeleteObjectsRequest deleteObjectRequest) {
+        List<DeleteObjectsRequest.KeyVersion> keyList = deleteObjectRequest.getKeys();
+        List<String> objectKeysToDelete = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return keyList.get(index).getKey();
             }
-        }
-        else if (request instanceof ListPartsRequest) {
-            ListPartsRequest listPartsRequest = (ListPartsRequest) request;
-            if (listPartsRequest.getKey() == null){
-                s3Prefix = "s3://" + listPartsRequest.getBucketName();
-            } else {
-                s3Prefix = "s3://" + listPartsRequest.getBucketName() + "/" + listPartsRequest.getKey();
+
+            @Override
+            public int size() {
+                return keyList.size();
             }
+        };
+        return "s3://" + deleteObjectRequest.getBucketName() + getCommonPrefix(objectKeysToDelete);
+    }
+
+    private static String copyObjectPath(CopyObjectRequest copyObjectRequest) {
+        if (!copyObjectRequest.getSourceBucketName().equals(copyObjectRequest.getDestinationBucketName())){
+            logger.debug("Source and destination buckets are different for copy request. Access Grants does not support this use-case.");
+            throw new AmazonServiceException("The requested operation cannot be completed!", new UnsupportedOperationException("Access Grants does not support the requested operation!"));
         }
-        return s3Prefix;
+        List<String> keysList = Arrays.asList(copyObjectRequest.getSourceKey(), copyObjectRequest.getDestinationKey());
+        return "s3://" + copyObjectRequest.getSourceBucketName() + getCommonPrefix(keysList);
     }
 
-    public String getCommonPrefixFromMultiplePrefixes(ArrayList<String> keys) {
-        String commonAncestor = keys.get(0);
-        String lastPrefix = "";
-        for (String i : keys) {
-            while(!commonAncestor.equals("")) {
-                if (!i.startsWith(commonAncestor)){
-                    int lastIndex = commonAncestor.lastIndexOf("/");
-                    if (lastIndex == -1){
-                        return "/";
-                    }
-                    lastPrefix = commonAncestor.substring(lastIndex+1);
-                    commonAncestor = commonAncestor.substring(0, lastIndex);
-                } else {
-                    break;
-                }
-            }
+    public String getCommonPrefixFromMultiplePrefixes(List<String> keys) {
+        return getCommonPrefix(keys);
+    }
+
+    /**
+     * This method returns the common ancestor of the keys, which is their longest common prefix ending on a "/" of the
+     * first key, followed by the characters of the next segment of the first key which all keys share. Returns "/" when
+     * the keys do not share a prefix ending on a "/".
+     * @param keys object keys, e.g. of a DeleteObjects request
+     * @return the common ancestor of the keys prefixed with "/"
+     */
+    private static String getCommonPrefix(List<String> keys) {
+        String firstKey = keys.get(0);
+        int commonLength = commonPrefixLength(firstKey, keys);
+        if (commonLength == firstKey.length()) {
+            return "/" + firstKey + "/";
+        }
+        int ancestorEnd = firstKey.lastIndexOf('/', commonLength);
+        if (ancestorEnd == -1) {
+            return "/";
+        }
+        int segmentEnd = firstKey.indexOf('/', ancestorEnd + 1);
+        if (segmentEnd == -1) {
+            segmentEnd = firstKey.length();
+        }
+        return "/" + firstKey.substring(0, Math.max(ancestorEnd + 1, Math.min(segmentEnd, commonLength)));
+    }
+
+    private static int commonPrefixLength(String firstKey, List<String> keys) {
+        int commonLength = firstKey.length();
+        for (int i = 1; i < keys.size() && commonLength > 0; i++) {
+            commonLength = commonPrefixLength(firstKey, keys.get(i), commonLength);
         }
+        return commonLength;
+    }
 
-        String newCommonAncestor = commonAncestor + "/" + lastPrefix;
-        for (String i : keys) {
-            while(!lastPrefix.equals("")){
-                if (!i.startsWith(newCommonAncestor)){
-                    lastPrefix = lastPrefix.substring(0, lastPrefix.length()-1);
-                    newCommonAncestor = commonAncestor + "/" + lastPrefix;
-                }
-                else{
-                    break;
-                }
-            }
+    private static int commonPrefixLength(String firstKey, String key, int maxLength) {
+        int limit = Math.min(maxLength, key.length());
+        int length = 0;
+        while (length < limit && firstKey.charAt(length) == key.charAt(length)) {
+            length++;
         }
-        return "/" + newCommonAncestor;
+        return length;
     }
 }
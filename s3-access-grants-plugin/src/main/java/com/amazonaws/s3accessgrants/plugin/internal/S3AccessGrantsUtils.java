@@ -22,7 +22,20 @@ import com.amazonaws.util.ValidationUtils;
 public class S3AccessGrantsUtils {
     public static final Boolean DEFAULT_FALLBACK = true;
     public static final Boolean DEFAULT_CROSS_REGION_ACCESS = false;
+    public static final Boolean DEFAULT_REFRESH_AHEAD = false;
+    public static final Boolean DEFAULT_STAGE_TIMINGS = false;
+    public static final Boolean DEFAULT_ADAPTIVE_THROTTLING = false;
+    public static final int DEFAULT_THROTTLING_DEADLINE_MILLIS = 5_000;
+    public static final Boolean DEFAULT_STALE_WHILE_REVALIDATE = false;
+    public static final int DEFAULT_STALE_SAFETY_MARGIN_SECONDS = 60;
+    public static final int DEFAULT_ACCESS_DENIED_EXPIRE_AFTER_WRITE_SECONDS = 300; // 5 minutes
+    public static final int DEFAULT_NEGATIVE_CACHE_EXPIRE_AFTER_WRITE_SECONDS = 30;
     public static final int DEFAULT_DURATION = 3600;
+    public static final int CALLER_ACCOUNT_ID_CACHE_SIZE = 1_000;
+    public static final int CALLER_ACCOUNT_ID_EXPIRE_CACHE_AFTER_WRITE_SECONDS = 3_600; // 1 hour
+    public static final int DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300; // 5 minutes
+    public static final int SNAPSHOT_MAX_GRANTS = 1_000;
+    public static final int SNAPSHOT_CLOSE_TIMEOUT_SECONDS = 10;
     private static final Log logger = LogFactory.getLog(S3AccessGrantsUtils.class);
 
     public static void argumentNotNull(Object param, String message) {
@@ -17,14 +17,20 @@ package com.amazonaws.s3accessgrants.plugin;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsOperation;
 import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsStaticOperationDetails;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3control.model.Permission;
 import org.junit.Test;
 
 import java.util.ArrayList;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.junit.Assert.fail;
 
 public class S3AccessGrantsOperationDetailsTest {
     private final S3AccessGrantsStaticOperationDetails operationDetails = new S3AccessGrantsStaticOperationDetails();
@@ -81,6 +87,41 @@ public class S3AccessGrantsOperationDetailsTest {
         operationDetails.getPath(request);
     }
 
+    @Test
+    public void testGetSupportedOperation() {
+        //When
+        AmazonWebServiceRequest listObjectsRequest = new ListObjectsV2Request().withBucketName("test-bucket");
+        S3AccessGrantsOperation operation = operationDetails.getSupportedOperation(listObjectsRequest);
+        //Then
+        assertThat(operation.getName()).isEqualTo("ListObjectsV2Request");
+        assertThat(operation.getPermission()).isEqualTo(Permission.READ);
+        assertThat(operation.getPath(listObjectsRequest)).isEqualTo("s3://test-bucket");
+        assertThat(operationDetails.getSupportedOperation(new ListObjectsV2Request())).isSameAs(operation);
+    }
+
+    @Test
+    public void testGetSupportedOperationForSubclass() {
+        //When
+        AmazonWebServiceRequest putObjectRequest = new PutObjectRequest("test-bucket", "PrefixA/file1.txt", "redirect") { };
+        S3AccessGrantsOperation operation = operationDetails.getSupportedOperation(putObjectRequest);
+        //Then
+        assertThat(operation.getPermission()).isEqualTo(Permission.WRITE);
+        assertThat(operation.getPath(putObjectRequest)).isEqualTo("s3://test-bucket/PrefixA/file1.txt");
+    }
+
+    @Test
+    public void testGetSupportedOperationThrowException() {
+        //When
+        AmazonWebServiceRequest request = new CreateBucketRequest("test-bucket");
+        try {
+            operationDetails.getSupportedOperation(request);
+            fail("Expected an AmazonServiceException");
+        } catch (AmazonServiceException e) {
+            //Then
+            assertThat(e.getCause()).isInstanceOf(UnsupportedOperationException.class);
+        }
+    }
+
     @Test
     public void getCommonPrefixFromMultiplePrefixes() {
         ArrayList<String> keys1 = new ArrayList<>();
@@ -107,4 +148,24 @@ public class S3AccessGrantsOperationDetailsTest {
         keys4.add("folder/path234/A/artifacts");
         assertThat(operationDetails.getCommonPrefixFromMultiplePrefixes(keys4)).isEqualTo("/folder/path");
     }
+
+    @Test
+    public void getCommonPrefixFromMultiplePrefixes_largeKeyList() {
+        ArrayList<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            keys.add("folder/path" + (i % 7) + "/A/file" + i);
+        }
+        assertThat(operationDetails.getCommonPrefixFromMultiplePrefixes(keys)).isEqualTo("/folder/path");
+        keys.add("other/path/A/file");
+        assertThat(operationDetails.getCommonPrefixFromMultiplePrefixes(keys)).isEqualTo("/");
+    }
+
+    @Test
+    public void testGetPathForDeleteObjectsRequest() {
+        //When
+        AmazonWebServiceRequest deleteObjectsRequest = new DeleteObjectsRequest("test-bucket")
+                .withKeys("folder/path123/A/logs", "folder/path234/A/logs");
+        //Then
+        assertThat(operationDetails.getPath(deleteObjectsRequest)).isEqualTo("s3://test-bucket/folder/path");
+    }
 }
@@ -17,14 +17,22 @@ package com.amazonaws.s3accessgrants.plugin;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Response;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.http.HttpResponse;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.s3accessgrants.cache.S3AccessGrantsCachedCredentialsProviderImpl;
+import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsClientPool;
 import com.amazonaws.s3accessgrants.plugin.internal.S3AccessGrantsStaticOperationDetails;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3control.AWSS3Control;
 import com.amazonaws.services.s3control.model.Permission;
@@ -35,9 +43,17 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class S3AccessGrantsRequestHandlerTest {
@@ -85,8 +101,7 @@ public class S3AccessGrantsRequestHandlerTest {
                 stsClient, cachedCredentialsProvider, mockedOperationDetails);
         //When
         GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
-        when(mockedOperationDetails.getOperation(any(String.class))).thenReturn("UnsupportedOperation");
-        when(mockedOperationDetails.getPermission(any(String.class))).thenThrow(new AmazonServiceException(""));
+        when(mockedOperationDetails.getSupportedOperation(any(AmazonWebServiceRequest.class))).thenThrow(new AmazonServiceException(""));
         when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
         when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
                 .thenReturn(accessGrantsCredentials);
@@ -101,8 +116,7 @@ public class S3AccessGrantsRequestHandlerTest {
                 stsClient, cachedCredentialsProvider, mockedOperationDetails);
         //When
         GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
-        when(mockedOperationDetails.getOperation(any(String.class))).thenReturn("UnsupportedOperation");
-        when(mockedOperationDetails.getPermission(any(String.class))).thenThrow(new AmazonServiceException(""));
+        when(mockedOperationDetails.getSupportedOperation(any(AmazonWebServiceRequest.class))).thenThrow(new AmazonServiceException(""));
         when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
         when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
                 .thenReturn(accessGrantsCredentials);
@@ -118,8 +132,7 @@ public class S3AccessGrantsRequestHandlerTest {
                 stsClient, cachedCredentialsProvider, mockedOperationDetails);
         //When
         GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
-        when(mockedOperationDetails.getOperation(any(String.class))).thenReturn("UnsupportedOperation");
-        when(mockedOperationDetails.getPermission(any(String.class))).thenThrow(new AmazonServiceException("", new UnsupportedOperationException("")));
+        when(mockedOperationDetails.getSupportedOperation(any(AmazonWebServiceRequest.class))).thenThrow(new AmazonServiceException("", new UnsupportedOperationException("")));
         when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
         when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
                 .thenReturn(accessGrantsCredentials);
@@ -139,30 +152,274 @@ public class S3AccessGrantsRequestHandlerTest {
     }
 
     @Test
-    public void accessGrantsRequestHandler_getS3ControlClientForRegion_S3ControlClientPresentInMap (){
+    public void accessGrantsRequestHandler_getCallerAccountId_cachedPerAccessKey (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
+        when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
+        BasicAWSCredentials otherCredentials = new BasicAWSCredentials("otherAccessKey", SECRET_ACCESS_KEY);
+        //When
+        assertThat(requestHandler.getCallerAccountId(basicAWSCredentials)).isEqualTo("12345678910");
+        assertThat(requestHandler.getCallerAccountId(basicAWSCredentials)).isEqualTo("12345678910");
+        assertThat(requestHandler.getCallerAccountId(otherCredentials)).isEqualTo("12345678910");
+        //Then
+        verify(stsClient, times(2)).getCallerIdentity(any(GetCallerIdentityRequest.class));
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_getCallerAccountId_concurrentMissesShareSingleCall () throws Exception {
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenAnswer(invocation -> {
+            releaseCall.await();
+            return new GetCallerIdentityResult().withAccount("12345678910");
+        });
+        AtomicReference<String> otherAccountId = new AtomicReference<>();
+        Thread other = new Thread(() -> otherAccountId.set(requestHandler.getCallerAccountId(basicAWSCredentials)));
+        //When
+        other.start();
+        while (other.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+        CompletableFuture<String> accountId = CompletableFuture.supplyAsync(() -> requestHandler.getCallerAccountId(basicAWSCredentials));
+        Thread.sleep(100);
+        releaseCall.countDown();
+        other.join();
+        //Then
+        assertThat(accountId.get()).isEqualTo("12345678910");
+        assertThat(otherAccountId.get()).isEqualTo("12345678910");
+        verify(stsClient, times(1)).getCallerIdentity(any(GetCallerIdentityRequest.class));
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_getS3ControlClientForRegion_S3ControlClientPresentInPool (){
         //Given
-        ConcurrentHashMap<Regions, AWSS3Control> clientsCache = new ConcurrentHashMap<>();
-        clientsCache.put(Regions.US_WEST_1, mockedS3ControlClient);
+        S3AccessGrantsClientPool clientPool = Mockito.mock(S3AccessGrantsClientPool.class);
+        when(clientPool.getS3ControlClient(Regions.US_WEST_1, credentialsProvider)).thenReturn(mockedS3ControlClient);
         requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, false, credentialsProvider, Regions.US_EAST_2,
-                stsClient, cachedCredentialsProvider, operationDetails, clientsCache);
+                stsClient, cachedCredentialsProvider, operationDetails, clientPool);
         String bucketName = "s3://test-bucket/prefixA";
         //When
-        when(cachedCredentialsProvider.getBucketRegion(any(AmazonS3.class), any(String.class))).thenReturn(Regions.US_WEST_1);
+        when(cachedCredentialsProvider.getBucketRegion(any(Supplier.class), any(String.class))).thenReturn(Regions.US_WEST_1);
         //Then
-        assertThat(requestHandler.getS3ControlClientForRegion(mockedS3Client, bucketName)).isEqualTo(mockedS3ControlClient);
+        assertThat(requestHandler.getS3ControlClientForRegion(() -> mockedS3Client, bucketName)).isEqualTo(mockedS3ControlClient);
     }
 
     @Test
-    public void accessGrantsRequestHandler_getS3ControlClientForRegion_S3ControlClientNotPresentInMap (){
+    public void accessGrantsRequestHandler_getS3ControlClientForRegion_S3ControlClientNotPresentInPool (){
         //Given
         requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, false, credentialsProvider, Regions.US_EAST_2,
                 stsClient, cachedCredentialsProvider, operationDetails);
         String bucketName = "s3://test-bucket/prefixA";
         //When
-        when(cachedCredentialsProvider.getBucketRegion(any(AmazonS3.class), any(String.class))).thenReturn(Regions.US_WEST_1);
+        when(cachedCredentialsProvider.getBucketRegion(any(Supplier.class), any(String.class))).thenReturn(Regions.US_WEST_1);
+        AWSS3Control s3ControlClient = requestHandler.getS3ControlClientForRegion(() -> mockedS3Client, bucketName);
+        //Then
+        assertThat(s3ControlClient).isNotNull();
+        assertThat(requestHandler.getClientPool().getS3ControlClient(Regions.US_WEST_1, credentialsProvider)).isSameAs(s3ControlClient);
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_resolve_reusesPooledS3ControlClient (){
+        //Given
+        S3AccessGrantsClientPool clientPool = Mockito.mock(S3AccessGrantsClientPool.class);
+        when(clientPool.getS3ControlClient(Regions.US_EAST_2, credentialsProvider)).thenReturn(mockedS3ControlClient);
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails, clientPool);
+        GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
+        when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
+        when(credentialsProvider.getCredentials()).thenReturn(basicAWSCredentials);
+        when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
+                .thenReturn(accessGrantsCredentials);
+        //When
+        requestHandler.resolve(getObjectRequest);
+        requestHandler.resolve(getObjectRequest);
+        //Then
+        verify(clientPool, times(2)).getS3ControlClient(Regions.US_EAST_2, credentialsProvider);
+        verify(cachedCredentialsProvider, times(2)).getDataAccess(Mockito.eq(mockedS3ControlClient), any(AWSCredentials.class),
+                any(Permission.class), any(String.class), any(String.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void accessGrantsRequestHandler_close_shutsDownPooledClients (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        //When
+        requestHandler.close();
+        //Then
+        verify(stsClient, times(1)).shutdown();
+        assertThat(requestHandler.getClientPool().isClosed()).isTrue();
+        requestHandler.getClientPool().getS3ControlClient(Regions.US_EAST_2, credentialsProvider);
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_bucketRegionLearner_learnsRegionFromResponse (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, true, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        DefaultRequest<AmazonWebServiceRequest> request = new DefaultRequest<>(getObjectRequest, "Amazon S3");
+        HttpResponse httpResponse = new HttpResponse(request, null);
+        httpResponse.addHeader("x-amz-bucket-region", "us-west-2");
+        //When
+        requestHandler.bucketRegionLearner().afterResponse(request, new Response<>(null, httpResponse));
+        //Then
+        verify(cachedCredentialsProvider, times(1)).learnBucketRegion("test-bucket", "us-west-2");
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_bucketRegionLearner_learnsRegionFromRedirect (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, true, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        DefaultRequest<AmazonWebServiceRequest> request = new DefaultRequest<>(getObjectRequest, "Amazon S3");
+        AmazonS3Exception redirect = new AmazonS3Exception("Moved Permanently");
+        redirect.setStatusCode(301);
+        Map<String, String> details = new HashMap<>();
+        details.put("x-amz-bucket-region", "eu-west-1");
+        redirect.setAdditionalDetails(details);
+        //When
+        requestHandler.bucketRegionLearner().afterError(request, null, redirect);
+        //Then
+        verify(cachedCredentialsProvider, times(1)).learnBucketRegion("test-bucket", "eu-west-1");
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_bucketRegionLearner_learnsRegionOfRequestsWithoutSinglePrefix (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, true, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        DefaultRequest<AmazonWebServiceRequest> copyRequest = new DefaultRequest<>(
+                new CopyObjectRequest("source-bucket", "PrefixA/file1.txt", "test-bucket", "PrefixB/file1.txt"), "Amazon S3");
+        DefaultRequest<AmazonWebServiceRequest> deleteRequest = new DefaultRequest<>(new DeleteObjectsRequest("other-bucket"), "Amazon S3");
+        HttpResponse copyResponse = new HttpResponse(copyRequest, null);
+        copyResponse.addHeader("x-amz-bucket-region", "us-west-2");
+        HttpResponse deleteResponse = new HttpResponse(deleteRequest, null);
+        deleteResponse.addHeader("x-amz-bucket-region", "eu-west-1");
+        //When
+        requestHandler.bucketRegionLearner().afterResponse(copyRequest, new Response<>(null, copyResponse));
+        requestHandler.bucketRegionLearner().afterResponse(deleteRequest, new Response<>(null, deleteResponse));
+        //Then
+        verify(cachedCredentialsProvider, times(1)).learnBucketRegion("test-bucket", "us-west-2");
+        verify(cachedCredentialsProvider, times(1)).learnBucketRegion("other-bucket", "eu-west-1");
+    }
+
+    @Test
+    public void accessGrantsRequestHandler_bucketRegionLearner_doesNotFailTheRequest (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, true, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        DefaultRequest<AmazonWebServiceRequest> request = new DefaultRequest<>(getObjectRequest, "Amazon S3");
+        HttpResponse httpResponse = new HttpResponse(request, null);
+        httpResponse.addHeader("x-amz-bucket-region", "us-west-2");
+        Mockito.doThrow(new IllegalArgumentException("Unexpected bucket region")).when(cachedCredentialsProvider)
+                .learnBucketRegion("test-bucket", "us-west-2");
+        //When
+        requestHandler.bucketRegionLearner().afterResponse(request, new Response<>(null, httpResponse));
+        //Then
+        verify(cachedCredentialsProvider, times(1)).learnBucketRegion("test-bucket", "us-west-2");
+    }
+
+    @Test
+    public void accessGrantsRequestHandler2_injectsAccessGrantsCredentials (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, false, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
+        when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
+        when(credentialsProvider.getCredentials()).thenReturn(basicAWSCredentials);
+        when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
+                .thenReturn(accessGrantsCredentials);
+        //When
+        AmazonWebServiceRequest request = new S3AccessGrantsRequestHandler2(requestHandler).beforeExecution(getObjectRequest);
+        //Then
+        assertThat(request.getRequestCredentialsProvider().getCredentials()).isEqualTo(accessGrantsCredentials);
+    }
+
+    @Test
+    public void accessGrantsRequestHandler2_noSuchBucket_invalidatesBucket (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, true, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        DefaultRequest<AmazonWebServiceRequest> request = new DefaultRequest<>(getObjectRequest, "Amazon S3");
+        AmazonS3Exception noSuchBucket = new AmazonS3Exception("The specified bucket does not exist");
+        noSuchBucket.setStatusCode(404);
+        noSuchBucket.setErrorCode("NoSuchBucket");
+        //When
+        new S3AccessGrantsRequestHandler2(requestHandler).afterError(request, null, noSuchBucket);
+        //Then
+        verify(cachedCredentialsProvider, times(1)).invalidateBucket("test-bucket");
+    }
+
+    @Test
+    public void accessGrantsRequestHandler2_noSuchBucket_invalidatesBucketOfCopyAcrossBuckets (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, true, true, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        DefaultRequest<AmazonWebServiceRequest> request = new DefaultRequest<>(
+                new CopyObjectRequest("source-bucket", "PrefixA/file1.txt", "test-bucket", "PrefixB/file1.txt"), "Amazon S3");
+        AmazonS3Exception noSuchBucket = new AmazonS3Exception("The specified bucket does not exist");
+        noSuchBucket.setStatusCode(404);
+        noSuchBucket.setErrorCode("NoSuchBucket");
+        Mockito.doThrow(new IllegalStateException("Cache is closed")).when(cachedCredentialsProvider).invalidateBucket("test-bucket");
+        //When
+        new S3AccessGrantsRequestHandler2(requestHandler).afterError(request, null, noSuchBucket);
+        //Then
+        verify(cachedCredentialsProvider, times(1)).invalidateBucket("test-bucket");
+    }
+
+    @Test
+    public void accessGrantsRequestHandler2_forbidden_reResolvesCredentialsOnce (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, false, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        AWSCredentials reResolvedCredentials = new BasicSessionCredentials("reResolvedAccessKey", SECRET_ACCESS_KEY, SESSION_TOKEN);
+        GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
+        when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
+        when(credentialsProvider.getCredentials()).thenReturn(basicAWSCredentials);
+        when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
+                .thenReturn(accessGrantsCredentials, reResolvedCredentials);
+        when(cachedCredentialsProvider.invalidateDataAccess(basicAWSCredentials, Permission.READ, "s3://test-bucket/PrefixA/file1.txt", accessGrantsCredentials))
+                .thenReturn(true);
+        S3AccessGrantsRequestHandler2 requestHandler2 = new S3AccessGrantsRequestHandler2(requestHandler);
+        RetryPolicy.RetryCondition retryCondition = requestHandler2.retryCondition(RetryPolicy.RetryCondition.NO_RETRY_CONDITION);
+        AmazonWebServiceRequest request = requestHandler2.beforeExecution(getObjectRequest);
+        AmazonS3Exception forbidden = new AmazonS3Exception("Access Denied");
+        forbidden.setStatusCode(403);
+        //When
+        boolean retried = retryCondition.shouldRetry(request, forbidden, 0);
+        boolean retriedAgain = retryCondition.shouldRetry(request, forbidden, 1);
+        //Then
+        assertThat(retried).isTrue();
+        assertThat(retriedAgain).isFalse();
+        assertThat(request.getRequestCredentialsProvider().getCredentials()).isEqualTo(reResolvedCredentials);
+        verify(cachedCredentialsProvider, times(1)).invalidateDataAccess(any(AWSCredentials.class), any(Permission.class), any(String.class), any(AWSCredentials.class));
+    }
+
+    @Test
+    public void accessGrantsRequestHandler2_forbidden_retriesWithCredentialsSharingTheAccessKeyId (){
+        //Given
+        requestHandler = new S3AccessGrantsRequestHandler(mockedS3ControlClient, false, false, credentialsProvider, Regions.US_EAST_2,
+                stsClient, cachedCredentialsProvider, operationDetails);
+        AWSCredentials reResolvedCredentials = new BasicSessionCredentials(ACCESS_KEY_ID, SECRET_ACCESS_KEY, "reResolvedSessionToken");
+        GetCallerIdentityResult result = new GetCallerIdentityResult().withAccount("12345678910");
+        when(stsClient.getCallerIdentity(any(GetCallerIdentityRequest.class))).thenReturn(result);
+        when(credentialsProvider.getCredentials()).thenReturn(basicAWSCredentials);
+        when(cachedCredentialsProvider.getDataAccess(any(AWSS3Control.class), any(AWSCredentials.class), any(Permission.class), any(String.class), any(String.class)))
+                .thenReturn(accessGrantsCredentials, reResolvedCredentials);
+        S3AccessGrantsRequestHandler2 requestHandler2 = new S3AccessGrantsRequestHandler2(requestHandler);
+        RetryPolicy.RetryCondition retryCondition = requestHandler2.retryCondition(RetryPolicy.RetryCondition.NO_RETRY_CONDITION);
+        AmazonWebServiceRequest request = requestHandler2.beforeExecution(getObjectRequest);
+        AmazonS3Exception forbidden = new AmazonS3Exception("Access Denied");
+        forbidden.setStatusCode(403);
+        //When
+        boolean retried = retryCondition.shouldRetry(request, forbidden, 0);
         //Then
-        requestHandler.getS3ControlClientForRegion(mockedS3Client, bucketName);
-        assertThat(requestHandler.getClientsCache().get(Regions.US_WEST_1)).isNotNull();
+        assertThat(retried).isTrue();
+        assertThat(request.getRequestCredentialsProvider().getCredentials()).isEqualTo(reResolvedCredentials);
     }
 
 }